@@ -0,0 +1,181 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An asynchronous view of a {@link Cache}, loading values without blocking the caller.
+ * <p>
+ * {@link #getAsync(Object, AsyncCacheLoader)} returns a completed future for values in the cache. On a miss the load
+ * is started on the executor and all callers asking for the same key while it is in flight share its future. A value
+ * that loads successfully is put in the underlying cache, a load that fails or returns null is forgotten, so the next
+ * caller loads again.
+ * </p>
+ * The view works on top of any {@link Cache}, in-flight loads are tracked by the view rather than by the cache, so a
+ * load doesn't occupy a slot or weight in the cache until it completes. Loads run on virtual threads by default.
+ *
+ * @param <Key> type of keys used for lookup
+ * @param <Value> type of values this cache can hold.
+ */
+public class AsyncCache<Key, Value> {
+
+    private static final class DefaultExecutorHolder {
+        private static final ExecutorService DEFAULT_EXECUTOR = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("cache-loader-", 0).factory()
+        );
+    }
+
+    private final Cache<Key, Value> cache;
+    private final Executor executor;
+    private final ConcurrentMap<Key, CompletableFuture<Value>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @return the executor running loads by default, a new virtual thread per load
+     */
+    static Executor defaultExecutor() {
+        return DefaultExecutorHolder.DEFAULT_EXECUTOR;
+    }
+
+    /**
+     * Runs loads on virtual threads.
+     *
+     * @param cache the cache holding the loaded values
+     */
+    public AsyncCache(Cache<Key, Value> cache) {
+        this(cache, defaultExecutor());
+    }
+
+    /**
+     * @param cache the cache holding the loaded values
+     * @param executor runs the loads
+     */
+    public AsyncCache(Cache<Key, Value> cache, Executor executor) {
+        this.cache = Objects.requireNonNull(cache);
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    /**
+     * Returns the value for the key, loading it if it isn't in the cache. Only one load per key is in flight at a
+     * time, concurrent callers share its future.
+     *
+     * @param key the key whose value is to be returned
+     * @param loader loads the value if it isn't in the cache or being loaded already
+     * @return a future completing with the value, with null if the loader returned null or a future completing with
+     *         null, or exceptionally if the load failed
+     */
+    public CompletableFuture<Value> getAsync(Key key, AsyncCacheLoader<Key, Value> loader) {
+        Objects.requireNonNull(loader);
+        Value value = cache.get(key);
+        if (value != null) {
+            return CompletableFuture.completedFuture(value);
+        }
+        CompletableFuture<Value> created = new CompletableFuture<>();
+        CompletableFuture<Value> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            // callers get their own dependent future, so one completing or cancelling it doesn't affect the others
+            return existing.copy();
+        }
+        // a load could have finished between our lookup and registering, looking again would count the miss twice in
+        // the cache's stats, so in that rare case the value is loaded once more
+        try {
+            executor.execute(() -> load(key, loader, created));
+        } catch (RuntimeException e) {
+            // e.g. rejected by a bounded executor
+            inFlight.remove(key, created);
+            created.completeExceptionally(e);
+        }
+        return created.copy();
+    }
+
+    /**
+     * @return a future for the value if it is in the cache or being loaded, null otherwise
+     */
+    public CompletableFuture<Value> getIfPresent(Key key) {
+        Value value = cache.get(key);
+        if (value != null) {
+            return CompletableFuture.completedFuture(value);
+        }
+        CompletableFuture<Value> loading = inFlight.get(key);
+        return loading == null ? null : loading.copy();
+    }
+
+    /**
+     * Puts the value in the cache. A load for the key still in flight no longer puts its value when it completes.
+     */
+    public void put(Key key, Value value) {
+        inFlight.remove(key);
+        cache.put(key, value);
+    }
+
+    /**
+     * Invalidates the key. A load for the key still in flight completes for its callers, but its value isn't put in
+     * the cache.
+     */
+    public void invalidate(Key key) {
+        inFlight.remove(key);
+        cache.invalidate(key);
+    }
+
+    /**
+     * Invalidates all keys, loads still in flight complete for their callers, but their values aren't put in the cache.
+     */
+    public void invalidateAll() {
+        inFlight.clear();
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return the number of loads in flight
+     */
+    public int loading() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return the underlying cache, holding the values that finished loading
+     */
+    public Cache<Key, Value> synchronous() {
+        return cache;
+    }
+
+    private void load(Key key, AsyncCacheLoader<Key, Value> loader, CompletableFuture<Value> created) {
+        CompletableFuture<? extends Value> loading;
+        try {
+            loading = loader.asyncLoad(key, executor);
+        } catch (Exception | Error e) {
+            inFlight.remove(key, created);
+            created.completeExceptionally(e);
+            return;
+        }
+        if (loading == null) {
+            // nothing to cache, like a future completing with null
+            inFlight.remove(key, created);
+            created.complete(null);
+            return;
+        }
+        loading.whenComplete((value, failure) -> {
+            if (failure != null || value == null) {
+                inFlight.remove(key, created);
+            } else {
+                // only put while still registered, so a put or invalidate that came in meanwhile wins
+                inFlight.computeIfPresent(key, (k, future) -> {
+                    if (future != created) {
+                        return future;
+                    }
+                    cache.put(k, value);
+                    return null;
+                });
+            }
+            if (failure != null) {
+                created.completeExceptionally(failure);
+            } else {
+                created.complete(value);
+            }
+        });
+    }
+}
@@ -0,0 +1,31 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads values for an {@link AsyncCache} asynchronously.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+@FunctionalInterface
+public interface AsyncCacheLoader<K, V> {
+    /**
+     * Starts loading the value for the key. Invoked on the executor of the {@link AsyncCache}, which is handed in so
+     * the loader can run further stages on it.
+     *
+     * @param key the key to load the value for
+     * @param executor the executor of the cache
+     * @return a future completing with the value, or with null to not cache anything; returning null instead of a
+     *         future has the same effect
+     */
+    CompletableFuture<? extends V> asyncLoad(K key, Executor executor) throws Exception;
+
+    /**
+     * Adapts a synchronous loader, the load runs on the executor of the cache.
+     */
+    static <K, V> AsyncCacheLoader<K, V> from(CacheLoader<K, V> loader) {
+        return (key, executor) -> CompletableFuture.completedFuture(loader.load(key));
+    }
+}
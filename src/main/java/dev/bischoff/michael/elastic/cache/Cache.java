@@ -9,7 +9,9 @@
 
 package dev.bischoff.michael.elastic.cache;
 
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.function.BiConsumer;
 import java.util.function.ToLongBiFunction;
@@ -25,11 +27,15 @@ import java.util.function.ToLongBiFunction;
  * {@link #invalidate(Key, Value)}, or {@link #invalidateAll()} is used, a removal notification with
  * {@link org.elasticsearch.common.cache.RemovalNotification.RemovalReason} INVALIDATED should be emitted.
  * </p>
+ * <p>
+ * Implementations that hold on to resources, such as background maintenance, release them on {@link #close()}. A closed cache should
+ * not be used anymore.
+ * </p>
  *
  * @param <Key> Type of keys to lookup values
  * @param <Value> Type of values stored in the cache
  */
-public interface Cache<Key, Value> {
+public interface Cache<Key, Value> extends AutoCloseable {
     /**
      * Returns the value to which the specified key is mapped, or null if this map contains no mapping for the key.
      *
@@ -63,6 +69,34 @@ public interface Cache<Key, Value> {
      */
     Value computeIfAbsent(Key key, CacheLoader<Key, Value> loader) throws ExecutionException;
 
+    /**
+     * Returns the values for the given keys that are in the cache. Implementations may look the keys up in batches, counting hits and
+     * misses as for {@link #get(Object)}.
+     *
+     * @param keys the keys whose associated values are to be returned
+     * @return a map from the keys found in the cache to their values, keys that aren't in the cache are absent
+     */
+    default Map<Key, Value> getAll(Iterable<? extends Key> keys) {
+        Map<Key, Value> result = new HashMap<>();
+        for (Key key : keys) {
+            Value value = get(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Associates all given values with their keys, as if by calling {@link #put(Object, Object)} for each. Implementations may apply
+     * the writes in batches and evict once for the whole batch rather than after each write.
+     *
+     * @param entries the keys and values to put in the cache
+     */
+    default void putAll(Map<? extends Key, ? extends Value> entries) {
+        entries.forEach(this::put);
+    }
+
     /**
      * Invalidate the association for the specified key. A removal notification will be issued for invalidated
      * entries with {@link org.elasticsearch.common.cache.RemovalNotification.RemovalReason} INVALIDATED.
@@ -81,6 +115,18 @@ public interface Cache<Key, Value> {
      */
     void invalidate(Key key, Value value);
 
+    /**
+     * Invalidate the associations for the specified keys, as if by calling {@link #invalidate(Object)} for each. A removal notification
+     * will be issued for invalidated entries with {@link org.elasticsearch.common.cache.RemovalNotification.RemovalReason} INVALIDATED.
+     *
+     * @param keys the keys whose mappings are to be invalidated from the cache
+     */
+    default void invalidateAll(Iterable<? extends Key> keys) {
+        for (Key key : keys) {
+            invalidate(key);
+        }
+    }
+
     /**
      * Invalidate all cache entries. A removal notification will be issued for invalidated entries with
      * {@link org.elasticsearch.common.cache.RemovalNotification.RemovalReason} INVALIDATED.
@@ -151,13 +197,44 @@ public interface Cache<Key, Value> {
      */
     void forEach(BiConsumer<Key, Value> consumer);
 
+    /**
+     * Releases the resources held by the cache. Implementations may invalidate all entries, issuing removal notifications with
+     * {@link org.elasticsearch.common.cache.RemovalNotification.RemovalReason} INVALIDATED. No-op by default.
+     */
+    @Override
+    default void close() {}
+
     /**
      * Point in time capture of cache statistics
      * @param hits number of times a cached value was hit
      * @param misses number of times no cached value could be found
-     * @param evictions number of entries that have been evicted
+     * @param evictions number of entries that have been evicted to stay within the maximum weight
+     * @param evictionWeight total weight of the evicted entries
+     * @param expirations number of entries that have been removed because they expired
+     * @param replacements number of entries that have been replaced by a new value
+     * @param invalidations number of entries that have been invalidated
+     * @param rejections number of entries admission didn't add to the cache
+     * @param loadSuccesses number of loads that returned a value
+     * @param loadFailures number of loads that threw an exception or returned null
+     * @param totalLoadTimeNanos time spent loading, successful or not
      */
-    record Stats(long hits, long misses, long evictions) {
+    record Stats(
+        long hits,
+        long misses,
+        long evictions,
+        long evictionWeight,
+        long expirations,
+        long replacements,
+        long invalidations,
+        long rejections,
+        long loadSuccesses,
+        long loadFailures,
+        long totalLoadTimeNanos
+    ) {
+
+        public Stats(long hits, long misses, long evictions) {
+            this(hits, misses, evictions, 0, 0, 0, 0, 0, 0, 0, 0);
+        }
 
         public long getHits() {
             return hits;
@@ -170,5 +247,53 @@ public interface Cache<Key, Value> {
         public long getEvictions() {
             return evictions;
         }
+
+        /**
+         * @return the number of entries removed for the given reason
+         */
+        public long removals(RemovalNotification.RemovalReason reason) {
+            return switch (reason) {
+                case REPLACED -> replacements;
+                case INVALIDATED -> invalidations;
+                case EVICTED -> evictions;
+                case EXPIRED -> expirations;
+                case REJECTED -> rejections;
+            };
+        }
+
+        /**
+         * @return the ratio of lookups that hit, 1 if there were none
+         */
+        public double hitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 1.0 : (double) hits / requests;
+        }
+
+        /**
+         * @return the average time a load took in nanoseconds, 0 if there were none
+         */
+        public double averageLoadPenaltyNanos() {
+            long loads = loadSuccesses + loadFailures;
+            return loads == 0 ? 0.0 : (double) totalLoadTimeNanos / loads;
+        }
+
+        /**
+         * @return the sum of these and the other statistics, e.g. to aggregate over shards
+         */
+        public Stats plus(Stats other) {
+            return new Stats(
+                hits + other.hits,
+                misses + other.misses,
+                evictions + other.evictions,
+                evictionWeight + other.evictionWeight,
+                expirations + other.expirations,
+                replacements + other.replacements,
+                invalidations + other.invalidations,
+                rejections + other.rejections,
+                loadSuccesses + other.loadSuccesses,
+                loadFailures + other.loadFailures,
+                totalLoadTimeNanos + other.totalLoadTimeNanos
+            );
+        }
     }
 }
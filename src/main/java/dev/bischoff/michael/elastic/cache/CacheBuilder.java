@@ -10,14 +10,37 @@
 package dev.bischoff.michael.elastic.cache;
 
 import java.util.Objects;
+import java.util.concurrent.Executor;
 import java.util.function.ToLongBiFunction;
 
 public class CacheBuilder<K, V> {
     private long maximumWeight = -1;
+    private long maximumSize = -1;
+    private int initialCapacity = -1;
+    private EvictionPolicy policy = EvictionPolicy.LRU;
     private long expireAfterAccessNanos = -1;
     private long expireAfterWriteNanos = -1;
     private ToLongBiFunction<K, V> weigher;
     private RemovalListener<K, V> removalListener;
+    private int shards = 1;
+    private int callerRunsSteps = 0;
+    private MaintenanceScheduler maintenanceScheduler;
+    private double compactionRatio = SieveCache.DEFAULT_COMPACTION_RATIO;
+    private OverflowPolicy overflowPolicy;
+    private long maxOverflow;
+    private long refreshAfterWriteNanos = -1;
+    private CacheLoader<K, V> reloader;
+    private long staleGraceNanos = 0;
+    private Executor refreshExecutor;
+    private Expiry<K, V> expiry;
+    private long expirationSweepIntervalNanos = -1;
+    private Ticker ticker;
+    private boolean recordStats = true;
+    private boolean admission = false;
+    // -1 for one bit, or three if eviction is cost-aware
+    private int visitedBits = -1;
+    private ToLongBiFunction<K, V> recomputeCost;
+    private boolean measureLoadCost = false;
 
     public static <K, V> CacheBuilder<K, V> builder() {
         return new CacheBuilder<>();
@@ -33,6 +56,42 @@ public class CacheBuilder<K, V> {
         return this;
     }
 
+    /**
+     * Bounds the number of entries in the cache, in addition to the maximum weight if one is set. The {@link EvictionPolicy#LRU LRU}
+     * policy can only bound one of both, there it takes the place of the maximum weight and can't be combined with a weigher.
+     *
+     * @param maximumSize the maximum number of entries, must not be negative
+     */
+    public CacheBuilder<K, V> maximumSize(long maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize < 0");
+        }
+        this.maximumSize = maximumSize;
+        return this;
+    }
+
+    /**
+     * Sizes the cache's internal tables for the given number of entries up front, so they don't have to grow while the cache fills.
+     *
+     * @param initialCapacity the number of entries to size for, must not be negative
+     */
+    public CacheBuilder<K, V> initialCapacity(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity < 0");
+        }
+        this.initialCapacity = initialCapacity;
+        return this;
+    }
+
+    /**
+     * Sets how {@link #build()} picks the entries to evict, defaults to {@link EvictionPolicy#LRU}.
+     */
+    public CacheBuilder<K, V> policy(EvictionPolicy policy) {
+        Objects.requireNonNull(policy);
+        this.policy = policy;
+        return this;
+    }
+
     /**
      * Sets the amount of time before an entry in the cache expires after it was last accessed.
      *
@@ -77,11 +136,369 @@ public class CacheBuilder<K, V> {
         return this;
     }
 
+    /**
+     * Sets the number of independent shards a {@link SieveCache} is split into, see {@link ShardedSieveCache}. The maximum weight is
+     * divided evenly over the shards. Only used by the {@link EvictionPolicy#SIEVE SIEVE} and {@link EvictionPolicy#FIFO FIFO}
+     * policies, not supported by the {@link EvictionPolicy#LRU LRU} and {@link EvictionPolicy#S3_FIFO S3_FIFO} policies.
+     *
+     * @param shards the number of shards, must be greater than 0
+     */
+    public CacheBuilder<K, V> setShards(int shards) {
+        if (shards <= 0) {
+            throw new IllegalArgumentException("shards <= 0");
+        }
+        this.shards = shards;
+        return this;
+    }
+
+    /**
+     * Lets a writer that finds a {@link SieveCache} over budget evict inline, moving the hand at most the given number of steps, before
+     * handing the remainder off to the {@link MaintenanceScheduler}. Not supported by the {@link EvictionPolicy#LRU LRU} policy.
+     *
+     * @param callerRunsSteps the maximum number of steps a writer takes, 0 (the default) leaves all eviction to the scheduler
+     */
+    public CacheBuilder<K, V> setCallerRunsSteps(int callerRunsSteps) {
+        if (callerRunsSteps < 0) {
+            throw new IllegalArgumentException("callerRunsSteps < 0");
+        }
+        this.callerRunsSteps = callerRunsSteps;
+        return this;
+    }
+
+    /**
+     * Sets the scheduler running background eviction, so many caches can share a bounded number of threads. Defaults to
+     * {@link MaintenanceScheduler#shared()}. Not used by the {@link EvictionPolicy#LRU LRU} policy.
+     */
+    public CacheBuilder<K, V> maintenanceScheduler(MaintenanceScheduler maintenanceScheduler) {
+        Objects.requireNonNull(maintenanceScheduler);
+        this.maintenanceScheduler = maintenanceScheduler;
+        return this;
+    }
+
+    /**
+     * Sets the ratio of replaced or invalidated entries still linked in a {@link SieveCache}'s queue to live entries above which these
+     * are unlinked by background compaction rather than waiting for the hand. Not used by the {@link EvictionPolicy#LRU LRU} policy.
+     *
+     * @param compactionRatio the ratio, must not be negative, defaults to {@link SieveCache#DEFAULT_COMPACTION_RATIO}
+     */
+    public CacheBuilder<K, V> setCompactionRatio(double compactionRatio) {
+        if (!(compactionRatio >= 0)) {
+            throw new IllegalArgumentException("compactionRatio < 0");
+        }
+        this.compactionRatio = compactionRatio;
+        return this;
+    }
+
+    /**
+     * Turns the maximum weight of a {@link SieveCache} into a hard bound. Writers finding the cache more than maxOverflow over the
+     * maximum weight act according to the policy instead of leaving eviction to the background. With multiple shards the overflow is
+     * divided over the shards. Not supported by the {@link EvictionPolicy#LRU LRU} and {@link EvictionPolicy#S3_FIFO S3_FIFO} policies.
+     *
+     * @param overflowPolicy what writers do when the cache is over the bound
+     * @param maxOverflow how much weight the cache may go over the maximum weight, must not be negative
+     */
+    public CacheBuilder<K, V> setHardBound(OverflowPolicy overflowPolicy, long maxOverflow) {
+        Objects.requireNonNull(overflowPolicy);
+        if (maxOverflow < 0) {
+            throw new IllegalArgumentException("maxOverflow < 0");
+        }
+        this.overflowPolicy = overflowPolicy;
+        this.maxOverflow = maxOverflow;
+        return this;
+    }
+
+    /**
+     * Reloads entries older than the given age in the background on the next read, which gets the current value without waiting. Only
+     * one reload per key runs at a time, failed reloads are retried by later reads with an exponential backoff. See
+     * {@link RefreshingCache}.
+     *
+     * @param refreshAfterWrite the age after which entries are reloaded, must be greater than 0
+     * @param reloader loads the new values
+     */
+    public CacheBuilder<K, V> setRefreshAfterWrite(TimeValue refreshAfterWrite, CacheLoader<K, V> reloader) {
+        Objects.requireNonNull(refreshAfterWrite);
+        Objects.requireNonNull(reloader);
+        final long refreshAfterWriteNanos = refreshAfterWrite.getNanos();
+        if (refreshAfterWriteNanos <= 0) {
+            throw new IllegalArgumentException("refreshAfterWrite <= 0");
+        }
+        this.refreshAfterWriteNanos = refreshAfterWriteNanos;
+        this.reloader = reloader;
+        return this;
+    }
+
+    /**
+     * Keeps serving entries for the given period after they expired after write, while they are reloaded, instead of missing. Requires
+     * {@link #setExpireAfterWrite(TimeValue)} and {@link #setRefreshAfterWrite(TimeValue, CacheLoader)}.
+     *
+     * @param staleGracePeriod how long expired entries may be served, must not be negative
+     */
+    public CacheBuilder<K, V> setStaleGracePeriod(TimeValue staleGracePeriod) {
+        Objects.requireNonNull(staleGracePeriod);
+        final long staleGraceNanos = staleGracePeriod.getNanos();
+        if (staleGraceNanos < 0) {
+            throw new IllegalArgumentException("staleGracePeriod < 0");
+        }
+        this.staleGraceNanos = staleGraceNanos;
+        return this;
+    }
+
+    /**
+     * Sets the executor running background reloads, defaults to a virtual thread per reload.
+     */
+    public CacheBuilder<K, V> refreshExecutor(Executor refreshExecutor) {
+        Objects.requireNonNull(refreshExecutor);
+        this.refreshExecutor = refreshExecutor;
+        return this;
+    }
+
+    /**
+     * Gives every entry its own lifetime, computed by the expiry when it is created, updated or read. Can be combined with expire after
+     * access and write, an entry expires at whichever comes first. Not supported by the {@link EvictionPolicy#LRU LRU} and
+     * {@link EvictionPolicy#S3_FIFO S3_FIFO} policies.
+     */
+    public CacheBuilder<K, V> expiry(Expiry<K, V> expiry) {
+        Objects.requireNonNull(expiry);
+        this.expiry = expiry;
+        return this;
+    }
+
+    /**
+     * Sweeps expired entries in the background at the given interval instead of leaving that to {@link Cache#refresh()}. Not supported
+     * by the {@link EvictionPolicy#LRU LRU} and {@link EvictionPolicy#S3_FIFO S3_FIFO} policies.
+     *
+     * @param interval the time between two sweeps, must be greater than 0
+     */
+    public CacheBuilder<K, V> setExpirationSweepInterval(TimeValue interval) {
+        Objects.requireNonNull(interval);
+        final long intervalNanos = interval.getNanos();
+        if (intervalNanos <= 0) {
+            throw new IllegalArgumentException("expirationSweepInterval <= 0");
+        }
+        this.expirationSweepIntervalNanos = intervalNanos;
+        return this;
+    }
+
+    /**
+     * Sets the source of time for expiration and refresh, defaults to {@link Ticker#systemTicker()}. {@link Ticker#coarse()} makes
+     * reads cheaper when expiring after access, a {@link ManualTicker} makes expiration deterministic.
+     */
+    public CacheBuilder<K, V> ticker(Ticker ticker) {
+        Objects.requireNonNull(ticker);
+        this.ticker = ticker;
+        return this;
+    }
+
+    /**
+     * Whether to record {@link Cache.Stats}, on by default. Turning it off takes the counting off the hot path, {@link Cache#stats()}
+     * then returns all zeros.
+     */
+    public CacheBuilder<K, V> setRecordStats(boolean recordStats) {
+        this.recordStats = recordStats;
+        return this;
+    }
+
+    /**
+     * Sets how many bits a {@link SieveCache} counts the hits of every entry in. With one bit, the default, this is plain SIEVE, a hit
+     * entry survives one pass of the hand. With k bits the count saturates at 2^k - 1 and every pass takes one hit off, so entries hit
+     * often are kept longer than entries hit once. With {@link #recomputeCost recompute costs} the counter holds the entry's credit
+     * instead and the bits set how finely costs are told apart. Only used by the {@link EvictionPolicy#SIEVE SIEVE} policy, not supported
+     * by the {@link EvictionPolicy#LRU LRU} and {@link EvictionPolicy#S3_FIFO S3_FIFO} policies.
+     *
+     * @param visitedBits the bits per counter, between 1 and 7, defaults to 1 or to 3 if eviction is cost-aware, which needs at least 2
+     */
+    public CacheBuilder<K, V> setVisitedBits(int visitedBits) {
+        if (visitedBits < 1) {
+            throw new IllegalArgumentException("visitedBits < 1");
+        }
+        if (visitedBits > 7) {
+            throw new IllegalArgumentException("visitedBits > 7");
+        }
+        this.visitedBits = visitedBits;
+        return this;
+    }
+
+    /**
+     * Makes a {@link SieveCache} evict by cost, a GreedyDual-Size approximation keeping the entries that are expensive to recompute for
+     * their weight and evicting the large, cheap ones first. It then optimizes the recompute time saved rather than the hit ratio.
+     * Costs are relative to each other, only their ratio to the weight matters. Not supported by the {@link EvictionPolicy#LRU LRU} and
+     * {@link EvictionPolicy#S3_FIFO S3_FIFO} policies.
+     *
+     * @param recomputeCost the cost of recomputing an entry in nanoseconds
+     * @see #setMeasureLoadCost(boolean)
+     */
+    public CacheBuilder<K, V> recomputeCost(ToLongBiFunction<K, V> recomputeCost) {
+        Objects.requireNonNull(recomputeCost);
+        this.recomputeCost = recomputeCost;
+        return this;
+    }
+
+    /**
+     * Makes a {@link SieveCache} evict by cost like {@link #recomputeCost}, taking how long the {@link CacheLoader} took as the cost of
+     * entries loaded by {@link Cache#computeIfAbsent}. Entries that are put count as average. A recompute cost function takes precedence.
+     * Not supported by the {@link EvictionPolicy#LRU LRU} and {@link EvictionPolicy#S3_FIFO S3_FIFO} policies.
+     */
+    public CacheBuilder<K, V> setMeasureLoadCost(boolean measureLoadCost) {
+        this.measureLoadCost = measureLoadCost;
+        return this;
+    }
+
+    /**
+     * Whether new keys have to pass TinyLFU admission once a {@link SieveCache} is full, off by default. A new key is only added if it
+     * was accessed more often recently than the entry next in line for eviction, so scans and one-hit wonders don't push out popular
+     * entries. Requires a {@link #maximumSize(long) maximum size}, which sizes the frequency sketch. Not supported by
+     * the {@link EvictionPolicy#LRU LRU} policy, nor by the {@link EvictionPolicy#S3_FIFO S3_FIFO} policy, which filters new keys through
+     * its small queue instead.
+     */
+    public CacheBuilder<K, V> setAdmission(boolean admission) {
+        this.admission = admission;
+        return this;
+    }
+
+    /**
+     * Builds a cache evicting according to the {@link #policy(EvictionPolicy) policy}, an {@link LRUCache} by default.
+     */
     public Cache<K, V> build() {
-        LRUCache<K, V> cache = new LRUCache<>();
+        return switch (policy) {
+            case LRU -> buildLRUCache();
+            case SIEVE, FIFO -> buildQueueCache(policy);
+            case S3_FIFO -> buildS3FifoCache();
+        };
+    }
+
+    /**
+     * Builds a {@link SieveCache}, or a {@link ShardedSieveCache} if more than one shard is configured, regardless of the policy.
+     */
+    public Cache<K, V> buildSieveCache() {
+        return buildQueueCache(EvictionPolicy.SIEVE);
+    }
+
+    /**
+     * Builds an {@link OffHeapSieveCache}, keeping values serialized outside the heap. The maximum weight is the number of off-heap bytes
+     * values may take, the weigher, shards and recompute cost function are not used. Per-entry {@link #expiry expiry} is not supported,
+     * it would have to deserialize the value for every decision.
+     *
+     * @param serializer turns values into bytes and back
+     */
+    public Cache<K, V> buildOffHeapSieveCache(ValueSerializer<V> serializer) {
+        if (expiry != null) {
+            throw new IllegalStateException("the off-heap cache doesn't support per-entry expiry");
+        }
+        return new OffHeapSieveCache<>(
+            SlabAllocator.DEFAULT_SLAB_SIZE,
+            serializer,
+            removalListener,
+            (slotListener, slotWeigher) -> newSieveCache(
+                EvictionPolicy.SIEVE,
+                maximumSize,
+                maximumWeight,
+                initialCapacity,
+                maxOverflow,
+                slotListener,
+                slotWeigher,
+                null,
+                expireAfterWriteNanos,
+                null
+            )
+        );
+    }
+
+    private Cache<K, V> buildLRUCache() {
+        if (shards != 1 || callerRunsSteps != 0 || overflowPolicy != null || expiry != null || expirationSweepIntervalNanos != -1
+            || visitedBits != -1 || admission || isCostAware()) {
+            throw new IllegalStateException(
+                "the LRU policy doesn't support shards, caller runs eviction, hard bounds, per-entry expiry, expiration sweeps, "
+                    + "visited bits, admission or recompute costs"
+            );
+        }
+        if (refreshAfterWriteNanos != -1) {
+            return refreshing(this::newLRUCache);
+        }
+        return newLRUCache(removalListener, weigher, expireAfterWriteNanos);
+    }
+
+    private Cache<K, V> buildQueueCache(EvictionPolicy policy) {
+        if (refreshAfterWriteNanos != -1) {
+            final Expiry<K, RefreshingCache.Stamped<V>> stampedExpiry = expiry == null ? null : stamped(expiry);
+            final ToLongBiFunction<K, RefreshingCache.Stamped<V>> stampedCost = recomputeCost == null
+                ? null
+                : (key, stamped) -> recomputeCost.applyAsLong(key, stamped.value());
+            return refreshing(
+                (listener, stampedWeigher, expireNanos) -> newShardedSieveCache(
+                    policy,
+                    listener,
+                    stampedWeigher,
+                    stampedCost,
+                    expireNanos,
+                    stampedExpiry
+                )
+            );
+        }
+        return newShardedSieveCache(policy, removalListener, weigher, recomputeCost, expireAfterWriteNanos, expiry);
+    }
+
+    private Cache<K, V> buildS3FifoCache() {
+        if (shards != 1 || overflowPolicy != null || expiry != null || expirationSweepIntervalNanos != -1 || visitedBits != -1
+            || admission || isCostAware()) {
+            throw new IllegalStateException(
+                "the S3_FIFO policy doesn't support shards, hard bounds, per-entry expiry, expiration sweeps, visited bits, admission "
+                    + "or recompute costs"
+            );
+        }
+        if (refreshAfterWriteNanos != -1) {
+            return refreshing(this::newS3FifoCache);
+        }
+        return newS3FifoCache(removalListener, weigher, expireAfterWriteNanos);
+    }
+
+    private Cache<K, V> refreshing(RefreshingCache.StampedCacheFactory<K, V> cacheFactory) {
+        return new RefreshingCache<>(
+            refreshAfterWriteNanos,
+            expireAfterWriteNanos,
+            staleGraceNanos,
+            reloader,
+            refreshExecutor != null ? refreshExecutor : AsyncCache.defaultExecutor(),
+            ticker != null ? ticker : Ticker.systemTicker(),
+            removalListener,
+            weigher,
+            cacheFactory
+        );
+    }
+
+    private static <K, V> Expiry<K, RefreshingCache.Stamped<V>> stamped(Expiry<K, V> expiry) {
+        return new Expiry<>() {
+            @Override
+            public long expireAfterCreate(K key, RefreshingCache.Stamped<V> stamped, long currentTime) {
+                return expiry.expireAfterCreate(key, stamped.value(), currentTime);
+            }
+
+            @Override
+            public long expireAfterUpdate(K key, RefreshingCache.Stamped<V> stamped, long currentTime, long currentDuration) {
+                return expiry.expireAfterUpdate(key, stamped.value(), currentTime, currentDuration);
+            }
+
+            @Override
+            public long expireAfterRead(K key, RefreshingCache.Stamped<V> stamped, long currentTime, long currentDuration) {
+                return expiry.expireAfterRead(key, stamped.value(), currentTime, currentDuration);
+            }
+        };
+    }
+
+    private <W> Cache<K, W> newLRUCache(RemovalListener<K, W> removalListener, ToLongBiFunction<K, W> weigher, long expireAfterWriteNanos) {
+        LRUCache<K, W> cache = new LRUCache<>();
+        if (maximumSize != -1) {
+            if (maximumWeight != -1 || weigher != null) {
+                throw new IllegalStateException("the LRU policy can't bound both the size and the weight");
+            }
+            // the default weigher weighs every entry 1
+            cache.setMaximumWeight(maximumSize);
+        }
         if (maximumWeight != -1) {
             cache.setMaximumWeight(maximumWeight);
         }
+        if (initialCapacity != -1) {
+            cache.setInitialCapacity(initialCapacity);
+        }
         if (expireAfterAccessNanos != -1) {
             cache.setExpireAfterAccessNanos(expireAfterAccessNanos);
         }
@@ -94,6 +511,156 @@ public class CacheBuilder<K, V> {
         if (removalListener != null) {
             cache.setRemovalListener(removalListener);
         }
+        if (ticker != null) {
+            cache.setTicker(ticker);
+        }
+        if (!recordStats) {
+            cache.setStatsCounter(StatsCounter.disabled());
+        }
+        return cache;
+    }
+
+    private <W> Cache<K, W> newS3FifoCache(
+        RemovalListener<K, W> removalListener,
+        ToLongBiFunction<K, W> weigher,
+        long expireAfterWriteNanos
+    ) {
+        S3FifoCache<K, W> cache = new S3FifoCache<>(
+            maximumSize == -1 ? null : maximumSize,
+            maximumWeight == -1 ? null : maximumWeight,
+            removalListener,
+            weigher,
+            expireAfterAccessNanos,
+            expireAfterWriteNanos,
+            initialCapacity == -1 ? 16 : initialCapacity
+        );
+        if (callerRunsSteps != 0) {
+            cache.setCallerRunsSteps(callerRunsSteps);
+        }
+        if (maintenanceScheduler != null) {
+            cache.setMaintenanceScheduler(maintenanceScheduler);
+        }
+        cache.setCompactionRatio(compactionRatio);
+        if (ticker != null) {
+            cache.setTicker(ticker);
+        }
+        if (!recordStats) {
+            cache.setStatsCounter(StatsCounter.disabled());
+        }
+        return cache;
+    }
+
+    private boolean isCostAware() {
+        return recomputeCost != null || measureLoadCost;
+    }
+
+    private <W> Cache<K, W> newShardedSieveCache(
+        EvictionPolicy policy,
+        RemovalListener<K, W> removalListener,
+        ToLongBiFunction<K, W> weigher,
+        ToLongBiFunction<K, W> recomputeCost,
+        long expireAfterWriteNanos,
+        Expiry<K, W> expiry
+    ) {
+        if (shards == 1) {
+            return newSieveCache(
+                policy,
+                maximumSize,
+                maximumWeight,
+                initialCapacity,
+                maxOverflow,
+                removalListener,
+                weigher,
+                recomputeCost,
+                expireAfterWriteNanos,
+                expiry
+            );
+        }
+        final long shardMaximumSize = maximumSize == -1 ? -1 : Math.ceilDiv(maximumSize, shards);
+        final long shardMaximumWeight = maximumWeight == -1 ? -1 : Math.ceilDiv(maximumWeight, shards);
+        final int shardInitialCapacity = initialCapacity == -1 ? -1 : Math.ceilDiv(initialCapacity, shards);
+        final long shardMaxOverflow = maxOverflow / shards;
+        return new ShardedSieveCache<>(
+            shards,
+            shard -> newSieveCache(
+                policy,
+                shardMaximumSize,
+                shardMaximumWeight,
+                shardInitialCapacity,
+                shardMaxOverflow,
+                removalListener,
+                weigher,
+                recomputeCost,
+                expireAfterWriteNanos,
+                expiry
+            )
+        );
+    }
+
+    private <W> SieveCache<K, W> newSieveCache(
+        EvictionPolicy policy,
+        long maximumSize,
+        long maximumWeight,
+        int initialCapacity,
+        long maxOverflow,
+        RemovalListener<K, W> removalListener,
+        ToLongBiFunction<K, W> weigher,
+        ToLongBiFunction<K, W> recomputeCost,
+        long expireAfterWriteNanos,
+        Expiry<K, W> expiry
+    ) {
+        boolean costAware = recomputeCost != null || measureLoadCost;
+        if (costAware && visitedBits == 1) {
+            // a single bit leaves every entry the same credit
+            throw new IllegalStateException("recompute costs require at least 2 visited bits");
+        }
+        SieveCache<K, W> cache = new SieveCache<>(
+            maximumSize == -1 ? null : maximumSize,
+            maximumWeight == -1 ? null : maximumWeight,
+            removalListener,
+            weigher,
+            expireAfterAccessNanos,
+            expireAfterWriteNanos
+        );
+        if (policy != EvictionPolicy.SIEVE) {
+            cache.setEvictionPolicy(policy);
+        }
+        if (initialCapacity != -1) {
+            cache.setInitialCapacity(initialCapacity);
+        }
+        if (visitedBits != -1) {
+            cache.setVisitedBits(visitedBits);
+        } else if (costAware) {
+            cache.setVisitedBits(3);
+        }
+        if (costAware) {
+            cache.setCost(recomputeCost);
+        }
+        if (callerRunsSteps != 0) {
+            cache.setCallerRunsSteps(callerRunsSteps);
+        }
+        if (maintenanceScheduler != null) {
+            cache.setMaintenanceScheduler(maintenanceScheduler);
+        }
+        cache.setCompactionRatio(compactionRatio);
+        if (overflowPolicy != null) {
+            cache.setHardBound(overflowPolicy, maxOverflow);
+        }
+        if (ticker != null) {
+            cache.setTicker(ticker);
+        }
+        if (!recordStats) {
+            cache.setStatsCounter(StatsCounter.disabled());
+        }
+        if (expiry != null) {
+            cache.setExpiry(expiry);
+        }
+        if (expirationSweepIntervalNanos != -1) {
+            cache.setExpirationSweepInterval(expirationSweepIntervalNanos);
+        }
+        if (admission) {
+            cache.enableAdmission();
+        }
         return cache;
     }
 }
@@ -0,0 +1,100 @@
+package dev.bischoff.michael.elastic.cache;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events of the caches, so cache behaviour can be correlated with GC and thread activity in the
+ * same recording. They're enabled in any recording, e.g. {@code jcmd <pid> JFR.start}, and can be turned off or given
+ * a threshold by name in a custom settings file.
+ * <p>
+ * All events follow the same pattern: created and begun unconditionally, fields filled in only if
+ * {@link Event#shouldCommit()}. While recording is off the JIT removes the event altogether, so they're free on the
+ * hot path.
+ * </p>
+ */
+final class CacheEvents {
+
+    private CacheEvents() {}
+
+    static final String SUCCESS = "SUCCESS";
+    static final String FAILURE = "FAILURE";
+    static final String NULL = "NULL";
+
+    @Name("dev.bischoff.michael.elastic.cache.CacheLoad")
+    @Label("Cache Load")
+    @Category("Cache")
+    @Description("A value loaded by a cache on a miss")
+    static final class CacheLoad extends Event {
+        @Label("Cache Type")
+        Class<?> cacheType;
+
+        @Label("Key Type")
+        Class<?> keyType;
+
+        @Label("Outcome")
+        @Description("SUCCESS, FAILURE if the loader threw or NULL if it returned null")
+        String outcome;
+
+        /**
+         * Ends the load and commits it if recorded.
+         */
+        void complete(Object cache, Object key, String outcome) {
+            end();
+            if (shouldCommit()) {
+                this.cacheType = cache.getClass();
+                this.keyType = key == null ? null : key.getClass();
+                this.outcome = outcome;
+                commit();
+            }
+        }
+    }
+
+    @Name("dev.bischoff.michael.elastic.cache.SieveSweep")
+    @Label("Sieve Sweep")
+    @Category("Cache")
+    @Description("A run of the SIEVE hand over the queue that moved it at least one entry")
+    @StackTrace(false)
+    static final class SieveSweep extends Event {
+        @Label("Cache Type")
+        Class<?> cacheType;
+
+        @Label("Entries Scanned")
+        int scanned;
+
+        @Label("Entries Evicted")
+        int evicted;
+
+        @Label("Second Chances")
+        @Description("Visited entries the hand passed over, taking one hit off their count")
+        int secondChances;
+    }
+
+    @Name("dev.bischoff.michael.elastic.cache.InvalidateAll")
+    @Label("Cache Invalidate All")
+    @Category("Cache")
+    @Description("A cache cleared by invalidateAll()")
+    static final class InvalidateAll extends Event {
+        @Label("Cache Type")
+        Class<?> cacheType;
+
+        @Label("Entries Invalidated")
+        long count;
+    }
+
+    @Name("dev.bischoff.michael.elastic.cache.LruLockContention")
+    @Label("LRU Lock Contention")
+    @Category("Cache")
+    @Description("A thread waiting for the LRU lock of an LRUCache")
+    @Threshold("10 ms")
+    static final class LruLockContention extends Event {
+        @Label("Queue Length")
+        @Description("Threads waiting for the lock when it was acquired")
+        int queueLength;
+    }
+}
@@ -0,0 +1,12 @@
+package dev.bischoff.michael.elastic.cache;
+
+/**
+ * Thrown when a write is rejected because the cache is over its hard capacity bound, see {@link OverflowPolicy#FAIL_FAST}.
+ */
+public class CacheFullException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    public CacheFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,37 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Caches {@link System#nanoTime()} in a volatile updated by a daemon thread, see {@link Ticker#coarse()}.
+ */
+final class CoarseTicker implements Ticker {
+
+    // how often the cached time is updated
+    static final long RESOLUTION_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static final class InstanceHolder {
+        private static final CoarseTicker INSTANCE = new CoarseTicker(RESOLUTION_NANOS);
+    }
+
+    private volatile long nanos = System.nanoTime();
+
+    static CoarseTicker instance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    private CoarseTicker(long resolutionNanos) {
+        Thread.ofPlatform().name("cache-coarse-ticker").daemon().start(() -> {
+            while (true) {
+                LockSupport.parkNanos(resolutionNanos);
+                nanos = System.nanoTime();
+            }
+        });
+    }
+
+    @Override
+    public long read() {
+        return nanos;
+    }
+}
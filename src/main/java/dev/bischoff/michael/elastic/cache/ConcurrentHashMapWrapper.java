@@ -1,5 +1,7 @@
 package dev.bischoff.michael.elastic.cache;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.function.BiConsumer;
@@ -9,41 +11,116 @@ import java.util.function.BiConsumer;
  */
 public class ConcurrentHashMapWrapper<K, V> implements Cache<K, V> {
     private final ConcurrentHashMap<K, V> map = new ConcurrentHashMap<>();
+    private final StatsCounter stats;
+
+    public ConcurrentHashMapWrapper() {
+        this(true);
+    }
+
+    /**
+     * @param recordStats whether to record statistics, {@link #stats()} returns all zeros if not
+     */
+    public ConcurrentHashMapWrapper(boolean recordStats) {
+        this.stats = recordStats ? StatsCounter.concurrent() : StatsCounter.disabled();
+    }
 
     @Override
     public V get(K k) {
-        return map.get(k);
+        V v = map.get(k);
+        if (v != null) {
+            stats.recordHits(1);
+        } else {
+            stats.recordMisses(1);
+        }
+        return v;
     }
 
     @Override
     public void put(K k, V v) {
-        map.put(k, v);
+        if (map.put(k, v) != null) {
+            stats.recordRemoval(RemovalNotification.RemovalReason.REPLACED);
+        }
     }
 
     @Override
     public V computeIfAbsent(K k, CacheLoader<K, V> loader) throws ExecutionException {
+        V existing = map.get(k);
+        if (existing != null) {
+            stats.recordHits(1);
+            return existing;
+        }
         return map.computeIfAbsent(k, k1 -> {
+            stats.recordMisses(1);
+            CacheEvents.CacheLoad loadEvent = new CacheEvents.CacheLoad();
+            loadEvent.begin();
+            long loadStart = System.nanoTime();
+            V loaded;
             try {
-                return loader.load(k);
+                loaded = loader.load(k);
             } catch (Exception e) {
+                stats.recordLoadFailure(System.nanoTime() - loadStart);
+                loadEvent.complete(this, k, CacheEvents.FAILURE);
                 throw new RuntimeException(e);
             }
+            if (loaded == null) {
+                stats.recordLoadFailure(System.nanoTime() - loadStart);
+                loadEvent.complete(this, k, CacheEvents.NULL);
+            } else {
+                stats.recordLoadSuccess(System.nanoTime() - loadStart);
+                loadEvent.complete(this, k, CacheEvents.SUCCESS);
+            }
+            return loaded;
         });
     }
 
+    @Override
+    public Map<K, V> getAll(Iterable<? extends K> ks) {
+        Map<K, V> result = new HashMap<>();
+        long misses = 0;
+        for (K k : ks) {
+            V v = map.get(k);
+            if (v != null) {
+                result.put(k, v);
+            } else {
+                misses++;
+            }
+        }
+        stats.recordHits(result.size());
+        stats.recordMisses(misses);
+        return result;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> entries) {
+        entries.forEach(this::put);
+    }
+
     @Override
     public void invalidate(K k) {
-        map.remove(k);
+        if (map.remove(k) != null) {
+            stats.recordRemoval(RemovalNotification.RemovalReason.INVALIDATED);
+        }
     }
 
     @Override
     public void invalidate(K k, V v) {
-        map.remove(k, v);
+        if (map.remove(k, v)) {
+            stats.recordRemoval(RemovalNotification.RemovalReason.INVALIDATED);
+        }
+    }
+
+    @Override
+    public void invalidateAll(Iterable<? extends K> ks) {
+        for (K k : ks) {
+            invalidate(k);
+        }
     }
 
     @Override
     public void invalidateAll() {
-        map.clear();
+        for (K k : map.keySet()) {
+            invalidate(k);
+        }
     }
 
     @Override
@@ -68,7 +145,7 @@ public class ConcurrentHashMapWrapper<K, V> implements Cache<K, V> {
 
     @Override
     public Stats stats() {
-        return null;
+        return stats.snapshot();
     }
 
     @Override
@@ -0,0 +1,74 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records statistics in {@link LongAdder}s, so concurrent updates don't contend on a single counter.
+ */
+final class ConcurrentStatsCounter implements StatsCounter {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loadSuccesses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder totalLoadTime = new LongAdder();
+    private final LongAdder evictionWeight = new LongAdder();
+    // indexed by the ordinal of the removal reason
+    private final LongAdder[] removals = new LongAdder[RemovalNotification.RemovalReason.values().length];
+
+    ConcurrentStatsCounter() {
+        for (int i = 0; i < removals.length; i++) {
+            removals[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public void recordHits(long count) {
+        hits.add(count);
+    }
+
+    @Override
+    public void recordMisses(long count) {
+        misses.add(count);
+    }
+
+    @Override
+    public void recordLoadSuccess(long loadTimeNanos) {
+        loadSuccesses.increment();
+        totalLoadTime.add(loadTimeNanos);
+    }
+
+    @Override
+    public void recordLoadFailure(long loadTimeNanos) {
+        loadFailures.increment();
+        totalLoadTime.add(loadTimeNanos);
+    }
+
+    @Override
+    public void recordEviction(long weight) {
+        removals[RemovalNotification.RemovalReason.EVICTED.ordinal()].increment();
+        evictionWeight.add(weight);
+    }
+
+    @Override
+    public void recordRemoval(RemovalNotification.RemovalReason reason) {
+        removals[reason.ordinal()].increment();
+    }
+
+    @Override
+    public Cache.Stats snapshot() {
+        return new Cache.Stats(
+            hits.sum(),
+            misses.sum(),
+            removals[RemovalNotification.RemovalReason.EVICTED.ordinal()].sum(),
+            evictionWeight.sum(),
+            removals[RemovalNotification.RemovalReason.EXPIRED.ordinal()].sum(),
+            removals[RemovalNotification.RemovalReason.REPLACED.ordinal()].sum(),
+            removals[RemovalNotification.RemovalReason.INVALIDATED.ordinal()].sum(),
+            removals[RemovalNotification.RemovalReason.REJECTED.ordinal()].sum(),
+            loadSuccesses.sum(),
+            loadFailures.sum(),
+            totalLoadTime.sum()
+        );
+    }
+}
@@ -0,0 +1,33 @@
+package dev.bischoff.michael.elastic.cache;
+
+/**
+ * Records nothing, see {@link StatsCounter#disabled()}.
+ */
+enum DisabledStatsCounter implements StatsCounter {
+    INSTANCE;
+
+    private static final Cache.Stats EMPTY = new Cache.Stats(0, 0, 0);
+
+    @Override
+    public void recordHits(long count) {}
+
+    @Override
+    public void recordMisses(long count) {}
+
+    @Override
+    public void recordLoadSuccess(long loadTimeNanos) {}
+
+    @Override
+    public void recordLoadFailure(long loadTimeNanos) {}
+
+    @Override
+    public void recordEviction(long weight) {}
+
+    @Override
+    public void recordRemoval(RemovalNotification.RemovalReason reason) {}
+
+    @Override
+    public Cache.Stats snapshot() {
+        return EMPTY;
+    }
+}
@@ -0,0 +1,115 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Coalesces the background maintenance of a cache, so it is queued on the {@link MaintenanceScheduler} at most once no
+ * matter how many writes need it. Shared by {@link SieveCache} and {@link S3FifoCache}, which only differ in what a
+ * batch of maintenance does.
+ * <p>
+ * A writer observing REQUIRED can rely on the queued drain, a writer observing PROCESSING on the drain checking whether
+ * it is needed again after it went back to IDLE. A batch that throws, e.g. because of a failing removal listener, is
+ * dropped by the scheduler, so another drain is queued to carry on.
+ * </p>
+ */
+final class Drainer implements MaintenanceScheduler.Task {
+
+    // no drain is needed
+    private static final int IDLE = 0;
+    // a drain has been handed to the scheduler but hasn't started yet
+    private static final int REQUIRED = 1;
+    // a drain is running, it checks whether it is needed again when done
+    private static final int PROCESSING = 2;
+
+    // below this there is no point in compacting, eviction will get there soon enough
+    private static final int MIN_DEAD_ENTRIES_TO_COMPACT = 64;
+
+    private final MaintenanceScheduler.Task batch;
+    private final BooleanSupplier needed;
+    private final AtomicInteger status = new AtomicInteger(IDLE);
+    private MaintenanceScheduler scheduler = MaintenanceScheduler.shared();
+    private volatile boolean closed;
+
+    /**
+     * @param batch runs a batch of eviction and compaction, returning true if it can make more progress right away
+     * @param needed whether the cache is over budget or needs compaction
+     */
+    Drainer(MaintenanceScheduler.Task batch, BooleanSupplier needed) {
+        this.batch = batch;
+        this.needed = needed;
+    }
+
+    /**
+     * @param scheduler the scheduler running the drains, instead of the shared one
+     */
+    void setScheduler(MaintenanceScheduler scheduler) {
+        this.scheduler = Objects.requireNonNull(scheduler);
+    }
+
+    /**
+     * Hands a drain to the scheduler unless one is already pending or the cache is closed.
+     */
+    void schedule() {
+        if (!closed && status.get() == IDLE && status.compareAndSet(IDLE, REQUIRED)) {
+            scheduler.schedule(this);
+        }
+    }
+
+    /**
+     * Stops scheduling drains, a drain still queued returns without doing anything.
+     */
+    void close() {
+        closed = true;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Runs a batch on behalf of the scheduler.
+     *
+     * @return true if the batch can make more progress, the scheduler should run another one after serving others
+     */
+    @Override
+    public boolean maintain(int maxSteps) {
+        if (closed) {
+            status.set(IDLE);
+            return false;
+        }
+        status.set(PROCESSING);
+        boolean more = false;
+        boolean failed = false;
+        try {
+            more = batch.maintain(maxSteps);
+        } catch (RuntimeException | Error e) {
+            failed = true;
+            throw e;
+        } finally {
+            // when there is more to do the task stays queued, a write seeing REQUIRED can rely on the next batch
+            status.set(more ? REQUIRED : IDLE);
+            if (failed) {
+                // the scheduler drops the task, queue another to carry on
+                schedule();
+            }
+        }
+        if (more) {
+            return true;
+        }
+        // a write that saw PROCESSING didn't schedule a drain itself, even if this batch couldn't make progress its
+        // entry may have been linked since
+        if (needed.getAsBoolean()) {
+            schedule();
+        }
+        return false;
+    }
+
+    /**
+     * @return true if there are enough dead entries, removed from the map but still linked, to be worth compacting
+     */
+    static boolean needsCompaction(long deadEntries, double compactionRatio, long liveEntries) {
+        return deadEntries > MIN_DEAD_ENTRIES_TO_COMPACT && deadEntries > compactionRatio * liveEntries;
+    }
+}
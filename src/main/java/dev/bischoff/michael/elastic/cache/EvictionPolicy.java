@@ -0,0 +1,28 @@
+package dev.bischoff.michael.elastic.cache;
+
+/**
+ * How a bounded cache picks the entries to evict, selected with {@link CacheBuilder#policy(EvictionPolicy)}. The
+ * policies share the same {@link Cache} interface, so switching between them doesn't affect callers.
+ */
+public enum EvictionPolicy {
+    /**
+     * Evicts the least recently used entry, see {@link LRUCache}. Every hit moves the entry to the front of a list
+     * guarded by a lock. The default.
+     */
+    LRU,
+    /**
+     * Evicts the oldest entry that wasn't hit since the hand last passed it, see {@link SieveCache}. Hits only set a
+     * flag, eviction happens in the background.
+     */
+    SIEVE,
+    /**
+     * Evicts the oldest entry, regardless of hits. Hits don't write to the entry at all, at the cost of evicting popular
+     * entries as readily as others. Shares its implementation with {@link #SIEVE}.
+     */
+    FIFO,
+    /**
+     * Keeps new entries in a small queue and only moves those hit there on to the main queue, see {@link S3FifoCache}.
+     * Resists scans and keys requested only once better than {@link #SIEVE}.
+     */
+    S3_FIFO
+}
@@ -0,0 +1,45 @@
+package dev.bischoff.michael.elastic.cache;
+
+/**
+ * Computes how long each entry lives, for caches where entries need different lifetimes, e.g. depending on the index
+ * they belong to. Durations are in nanoseconds and relative to the given current time; a duration of 0 or less expires
+ * the entry immediately, {@link Long#MAX_VALUE} means it doesn't expire.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public interface Expiry<K, V> {
+    /**
+     * @param key the key of the new entry
+     * @param value the value of the new entry
+     * @param currentTime the current time in nanoseconds
+     * @return how long the entry lives from now
+     */
+    long expireAfterCreate(K key, V value, long currentTime);
+
+    /**
+     * Called when the value of an existing entry is replaced. Keeps the remaining lifetime by default.
+     *
+     * @param key the key of the entry
+     * @param value the new value
+     * @param currentTime the current time in nanoseconds
+     * @param currentDuration the remaining lifetime of the replaced entry
+     * @return how long the entry lives from now
+     */
+    default long expireAfterUpdate(K key, V value, long currentTime, long currentDuration) {
+        return currentDuration;
+    }
+
+    /**
+     * Called when an entry is read. Keeps the remaining lifetime by default.
+     *
+     * @param key the key of the entry
+     * @param value the value of the entry
+     * @param currentTime the current time in nanoseconds
+     * @param currentDuration the remaining lifetime of the entry
+     * @return how long the entry lives from now
+     */
+    default long expireAfterRead(K key, V value, long currentTime, long currentDuration) {
+        return currentDuration;
+    }
+}
@@ -0,0 +1,159 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Estimates how often keys were accessed recently, for <a href="https://arxiv.org/abs/1512.00727">TinyLFU</a>
+ * admission.
+ * <p>
+ * A count-min sketch of 4-bit counters, sixteen to a long, four counters per key, the estimate is the smallest of
+ * them. In front of it a doorkeeper Bloom filter absorbs the first access of every key, so keys seen only once don't
+ * take up counters at all. After ten accesses per entry the cache can hold, all counters are halved and the doorkeeper
+ * is cleared, so the sketch follows changes in popularity rather than counting forever.
+ * </p>
+ * Lock-free: counters and doorkeeper bits are updated with CAS and nothing is allocated when recording an access.
+ * Concurrent increments racing with the halving may be lost, which only makes the estimates slightly less exact.
+ */
+final class FrequencySketch {
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    // clears the bit every counter receives from its neighbour when the word is shifted to halve all counters
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+    // accesses per entry the cache can hold after which the counters are halved
+    private static final int SAMPLE_FACTOR = 10;
+
+    private final long[] table;
+    private final long[] doorkeeper;
+    private final int sampleSize;
+    // accesses recorded since the last halving, minus what the halving forgot
+    private final AtomicInteger additions = new AtomicInteger();
+
+    /**
+     * @param maximumSize the number of entries the cache can hold, sizes the sketch
+     */
+    FrequencySketch(long maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize <= 0");
+        }
+        int entries = (int) Math.min(maximumSize, 1 << 30);
+        // a long per entry, sixteen counters shared by four hash functions
+        this.table = new long[Math.max(16, Integer.highestOneBit(entries - 1) << 1)];
+        // sixteen bits per entry
+        this.doorkeeper = new long[Math.max(1, table.length >>> 2)];
+        this.sampleSize = (int) Math.min((long) entries * SAMPLE_FACTOR, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Records an access of the key with the given hash code.
+     */
+    void increment(int hashCode) {
+        long hash = spread(hashCode);
+        if (addToDoorkeeper(hash)) {
+            for (int i = 0; i < SEEDS.length; i++) {
+                incrementAt(hash, i);
+            }
+        }
+        if (additions.incrementAndGet() == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * @return the estimated number of recent accesses of the key with the given hash code, at most 16
+     */
+    int frequency(int hashCode) {
+        long hash = spread(hashCode);
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < SEEDS.length; i++) {
+            long word = (long) LONGS.getOpaque(table, index(hash, i));
+            frequency = Math.min(frequency, (int) (word >>> offset(hash, i)) & MAX_COUNT);
+        }
+        return doorkeeperContains(hash) ? frequency + 1 : frequency;
+    }
+
+    private void incrementAt(long hash, int i) {
+        int index = index(hash, i);
+        int offset = offset(hash, i);
+        while (true) {
+            long word = (long) LONGS.getOpaque(table, index);
+            if (((word >>> offset) & MAX_COUNT) == MAX_COUNT) {
+                return;
+            }
+            if (LONGS.weakCompareAndSet(table, index, word, word + (1L << offset))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if the key was already in the doorkeeper and the access has to be counted in the sketch
+     */
+    private boolean addToDoorkeeper(long hash) {
+        boolean present = true;
+        for (int i = 0; i < 2; i++) {
+            long mask = 1L << doorkeeperBit(hash, i);
+            int index = doorkeeperIndex(hash, i);
+            if ((((long) LONGS.getOpaque(doorkeeper, index)) & mask) == 0) {
+                LONGS.getAndBitwiseOr(doorkeeper, index, mask);
+                present = false;
+            }
+        }
+        return present;
+    }
+
+    private boolean doorkeeperContains(long hash) {
+        for (int i = 0; i < 2; i++) {
+            long word = (long) LONGS.getOpaque(doorkeeper, doorkeeperIndex(hash, i));
+            if ((word & (1L << doorkeeperBit(hash, i))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Halves all counters and clears the doorkeeper, run by the thread whose access completed the sample.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            while (true) {
+                long word = (long) LONGS.getOpaque(table, i);
+                if (LONGS.weakCompareAndSet(table, i, word, (word >>> 1) & RESET_MASK)) {
+                    break;
+                }
+            }
+        }
+        for (int i = 0; i < doorkeeper.length; i++) {
+            LONGS.setOpaque(doorkeeper, i, 0L);
+        }
+        additions.addAndGet(-(sampleSize >>> 1));
+    }
+
+    private int index(long hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & (table.length - 1);
+    }
+
+    private static int offset(long hash, int i) {
+        // a different counter of the word per hash function, so they don't share counters when they pick the same word
+        return (((int) (hash >>> (i << 3)) & 3) << 2 | i) << 2;
+    }
+
+    private int doorkeeperIndex(long hash, int i) {
+        return (int) (hash >>> (i == 0 ? 6 : 38)) & (doorkeeper.length - 1);
+    }
+
+    private static int doorkeeperBit(long hash, int i) {
+        return (int) (hash >>> (i == 0 ? 0 : 32)) & 63;
+    }
+
+    private static long spread(int hashCode) {
+        long h = hashCode * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+}
@@ -0,0 +1,231 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.BiConsumer;
+
+/**
+ * Decorates any cache with a {@link LatencyHistogram} per operation, so percentiles can be looked at per cache
+ * instance in production rather than only as averages in a benchmark.
+ * <p>
+ * Only one in every sample rate operations is timed, the others only pay for drawing a random number, which keeps the
+ * overhead at a few nanoseconds per operation. The histograms reflect the latency distribution regardless of the rate,
+ * multiply their counts with it to estimate the number of operations.
+ * </p>
+ * {@link #snapshot(Operation)} resets the histogram it reads, poll it at a fixed interval to get latencies per interval.
+ *
+ * @param <Key> type of keys used for lookup
+ * @param <Value> type of values this cache can hold.
+ */
+public class InstrumentedCache<Key, Value> implements Cache<Key, Value> {
+
+    /**
+     * The operations that are timed.
+     */
+    public enum Operation {
+        GET,
+        PUT,
+        COMPUTE_IF_ABSENT,
+        INVALIDATE_ALL
+    }
+
+    private final Cache<Key, Value> cache;
+    private final int sampleRate;
+    private final int sampleMask;
+    private final LatencyHistogram get = new LatencyHistogram();
+    private final LatencyHistogram put = new LatencyHistogram();
+    private final LatencyHistogram computeIfAbsent = new LatencyHistogram();
+    private final LatencyHistogram invalidateAll = new LatencyHistogram();
+
+    /**
+     * Times every operation.
+     *
+     * @param cache the cache to time
+     */
+    public InstrumentedCache(Cache<Key, Value> cache) {
+        this(cache, 1);
+    }
+
+    /**
+     * @param cache the cache to time
+     * @param sampleRate times one in this many operations, must be a power of two
+     */
+    public InstrumentedCache(Cache<Key, Value> cache, int sampleRate) {
+        if (sampleRate <= 0 || Integer.bitCount(sampleRate) != 1) {
+            throw new IllegalArgumentException("sampleRate [" + sampleRate + "] is not a power of two");
+        }
+        this.cache = Objects.requireNonNull(cache);
+        this.sampleRate = sampleRate;
+        this.sampleMask = sampleRate - 1;
+    }
+
+    @Override
+    public Value get(Key key) {
+        if (!sample()) {
+            return cache.get(key);
+        }
+        long start = System.nanoTime();
+        try {
+            return cache.get(key);
+        } finally {
+            get.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void put(Key key, Value value) {
+        if (!sample()) {
+            cache.put(key, value);
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            cache.put(key, value);
+        } finally {
+            put.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Value computeIfAbsent(Key key, CacheLoader<Key, Value> loader) throws ExecutionException {
+        if (!sample()) {
+            return cache.computeIfAbsent(key, loader);
+        }
+        long start = System.nanoTime();
+        try {
+            return cache.computeIfAbsent(key, loader);
+        } finally {
+            computeIfAbsent.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void invalidate(Key key) {
+        cache.invalidate(key);
+    }
+
+    @Override
+    public void invalidate(Key key, Value value) {
+        cache.invalidate(key, value);
+    }
+
+    /**
+     * Always timed, clearing the cache is rare and its latency is the interesting one.
+     */
+    @Override
+    public void invalidateAll() {
+        long start = System.nanoTime();
+        try {
+            cache.invalidateAll();
+        } finally {
+            invalidateAll.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Map<Key, Value> getAll(Iterable<? extends Key> keys) {
+        return cache.getAll(keys);
+    }
+
+    @Override
+    public void putAll(Map<? extends Key, ? extends Value> entries) {
+        cache.putAll(entries);
+    }
+
+    @Override
+    public void invalidateAll(Iterable<? extends Key> keys) {
+        cache.invalidateAll(keys);
+    }
+
+    @Override
+    public void refresh() {
+        cache.refresh();
+    }
+
+    @Override
+    public int count() {
+        return cache.count();
+    }
+
+    @Override
+    public long weight() {
+        return cache.weight();
+    }
+
+    @Override
+    public Iterable<Key> keys() {
+        return cache.keys();
+    }
+
+    @Override
+    public Iterable<Value> values() {
+        return cache.values();
+    }
+
+    @Override
+    public Stats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public void forEach(BiConsumer<Key, Value> consumer) {
+        cache.forEach(consumer);
+    }
+
+    @Override
+    public void close() {
+        cache.close();
+    }
+
+    /**
+     * @return one in how many operations is timed
+     */
+    public int sampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Reads and resets the latencies of the operation.
+     *
+     * @return the latencies timed since the previous snapshot of the operation
+     */
+    public LatencyHistogram.Snapshot snapshot(Operation operation) {
+        return histogram(operation).snapshot();
+    }
+
+    /**
+     * Reads and resets the latencies of all operations.
+     *
+     * @return the latencies timed since the previous snapshot, per operation
+     */
+    public Map<Operation, LatencyHistogram.Snapshot> snapshot() {
+        Map<Operation, LatencyHistogram.Snapshot> snapshots = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            snapshots.put(operation, snapshot(operation));
+        }
+        return snapshots;
+    }
+
+    /**
+     * @return the cache being timed
+     */
+    public Cache<Key, Value> delegate() {
+        return cache;
+    }
+
+    private LatencyHistogram histogram(Operation operation) {
+        return switch (operation) {
+            case GET -> get;
+            case PUT -> put;
+            case COMPUTE_IF_ABSENT -> computeIfAbsent;
+            case INVALIDATE_ALL -> invalidateAll;
+        };
+    }
+
+    private boolean sample() {
+        return sampleMask == 0 || (ThreadLocalRandom.current().nextInt() & sampleMask) == 0;
+    }
+}
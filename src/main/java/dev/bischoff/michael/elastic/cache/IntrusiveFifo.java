@@ -0,0 +1,132 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Intrusive FIFO queue tailored to SIEVE.
+ * <p>
+ * Nodes carry their own links, so enqueueing an entry doesn't allocate anything besides the entry itself. The queue
+ * only supports what SIEVE needs:
+ * <ul>
+ * <li>{@link #offer(Node)} adds a node at the head. It is lock-free and can be called by any thread, uncontended it
+ * takes a CAS to link the node and one to move the head pointer along.</li>
+ * <li>{@link #oldest()} and {@link #newer(Node)} walk the queue from the tail towards the head, which is how the hand
+ * moves.</li>
+ * <li>{@link #unlink(Node)} removes a node in O(1). It must only be called by one thread at a time, the caller is
+ * responsible for that exclusivity, in practice the thread moving the hand.</li>
+ * </ul>
+ * The newest node can't be unlinked, as concurrent {@link #offer(Node)} calls link new nodes to it. It stays in the
+ * queue until a newer node arrives, callers treat it like any node they couldn't unlink yet.
+ * <p>
+ * Like the Michael-Scott queue a node is linked by a CAS on its predecessor's link, so it is reachable from the tail as
+ * soon as it is added; the head pointer is only a hint that may lag behind and is moved along by any thread that
+ * notices. A thread stalling halfway through {@link #offer(Node)} therefore never hides newer nodes from the hand.
+ * </p>
+ *
+ * @param <N> the type of the nodes
+ */
+final class IntrusiveFifo<N extends IntrusiveFifo.Node<N>> {
+
+    /**
+     * Base class for entries that can be linked into an {@link IntrusiveFifo}.
+     *
+     * @param <N> the type of the nodes, the subclass itself
+     */
+    abstract static class Node<N extends Node<N>> {
+        // towards the tail, only read by the thread unlinking
+        @SuppressWarnings("unused") // accessed through OLDER
+        private N older;
+        // towards the head, null while this node is the newest
+        @SuppressWarnings("unused") // accessed through NEWER
+        private N newer;
+    }
+
+    private static final VarHandle HEAD;
+    private static final VarHandle OLDER;
+    private static final VarHandle NEWER;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            HEAD = lookup.findVarHandle(IntrusiveFifo.class, "head", Node.class);
+            OLDER = lookup.findVarHandle(Node.class, "older", Node.class);
+            NEWER = lookup.findVarHandle(Node.class, "newer", Node.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // never unlinked, sits before the oldest node so the tail never has to be tracked
+    private final N sentinel;
+    @SuppressWarnings("unused") // accessed through HEAD
+    private volatile N head;
+
+    /**
+     * @param sentinel a node that is never handed out, only used to anchor the tail of the queue
+     */
+    IntrusiveFifo(N sentinel) {
+        this.sentinel = sentinel;
+        this.head = sentinel;
+    }
+
+    /**
+     * Adds the node at the head of the queue.
+     *
+     * @param node a node that isn't linked into any queue
+     */
+    @SuppressWarnings("unchecked")
+    void offer(N node) {
+        while (true) {
+            N last = head;
+            N next = (N) NEWER.getAcquire(last);
+            if (next != null) {
+                // the head pointer lags behind, help move it along
+                HEAD.compareAndSet(this, last, next);
+                continue;
+            }
+            OLDER.set(node, last);
+            if (NEWER.compareAndSet(last, null, node)) {
+                HEAD.compareAndSet(this, last, node);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the oldest node in the queue or null if the queue is empty
+     */
+    @SuppressWarnings("unchecked")
+    N oldest() {
+        return (N) NEWER.getAcquire(sentinel);
+    }
+
+    /**
+     * @return the node that was added after the given node or null if the given node is the newest
+     */
+    @SuppressWarnings("unchecked")
+    N newer(N node) {
+        return (N) NEWER.getAcquire(node);
+    }
+
+    /**
+     * Unlinks the node from the queue in O(1). The caller must guarantee no other thread is unlinking concurrently and
+     * that the node is currently linked. After unlinking, {@link #newer(Node)} on the node keeps returning the node
+     * that followed it, so a walker positioned on it can still move on.
+     *
+     * @param node the node to unlink
+     * @return true if the node was unlinked, false if it is the newest node and has to stay for now
+     */
+    @SuppressWarnings("unchecked")
+    boolean unlink(N node) {
+        assert node != sentinel;
+        N newer = (N) NEWER.getAcquire(node);
+        if (newer == null) {
+            return false;
+        }
+        N older = (N) OLDER.get(node);
+        NEWER.setRelease(older, newer);
+        OLDER.set(newer, older);
+        return true;
+    }
+}
@@ -10,13 +10,15 @@
 package dev.bischoff.michael.elastic.cache;
 
 import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -31,8 +33,8 @@ import java.util.function.ToLongBiFunction;
  * <p>
  * Cache is a simple concurrent cache that supports time-based and weight-based evictions, with notifications for all
  * evictions. The design goals for this cache were simplicity and read performance. This means that we are willing to
- * accept reduced write performance in exchange for easy-to-understand code. Cache statistics for hits, misses and
- * evictions are exposed.
+ * accept reduced write performance in exchange for easy-to-understand code. Cache statistics for hits, misses, loads and
+ * removals are exposed.
  * <p>
  * The design of the cache is relatively simple. The cache is segmented into 256 segments which are backed by HashMaps.
  * Each segment is protected by a re-entrant read/write lock. The read/write locks permit multiple concurrent readers
@@ -57,11 +59,7 @@ import java.util.function.ToLongBiFunction;
  */
 public class LRUCache<K, V> implements Cache<K, V> {
 
-    private final LongAdder hits = new LongAdder();
-
-    private final LongAdder misses = new LongAdder();
-
-    private final LongAdder evictions = new LongAdder();
+    private StatsCounter stats = StatsCounter.concurrent();
 
     // positive if entries have an expiration
     private long expireAfterAccessNanos = -1;
@@ -84,12 +82,20 @@ public class LRUCache<K, V> implements Cache<K, V> {
     // the maximum weight that this cache supports
     private long maximumWeight = -1;
 
+    // the number of entries evicted per acquisition of the LRU lock when shrinking the maximum weight
+    static final int SHRINK_BATCH_SIZE = 64;
+
     // the weigher of entries
     private ToLongBiFunction<K, V> weigher = (k, v) -> 1;
 
+    // the number of entries segment maps are sized for when created, -1 for the HashMap default
+    private int segmentInitialCapacity = -1;
+
     // the removal callback
     private RemovalListener<K, V> removalListener = notification -> {};
 
+    private Ticker ticker = Ticker.systemTicker();
+
     // use CacheBuilder to construct
     LRUCache() {}
 
@@ -119,11 +125,32 @@ public class LRUCache<K, V> implements Cache<K, V> {
         return this.expireAfterWriteNanos;
     }
 
-    void setMaximumWeight(long maximumWeight) {
+    /**
+     * Changes the maximum weight. When shrinking, the excess is evicted in batches of {@link #SHRINK_BATCH_SIZE} entries,
+     * releasing the LRU lock in between so other threads aren't blocked until the whole excess is evicted.
+     *
+     * @param maximumWeight the new maximum weight
+     */
+    public void setMaximumWeight(long maximumWeight) {
         if (maximumWeight < 0) {
             throw new IllegalArgumentException("maximumWeight < 0");
         }
-        this.maximumWeight = maximumWeight;
+        while (true) {
+            lockLru();
+            try {
+                for (int i = 0; i < SHRINK_BATCH_SIZE && tail != null && weight > maximumWeight; i++) {
+                    evictEntry(tail, RemovalNotification.RemovalReason.EVICTED);
+                }
+                if (weight <= maximumWeight) {
+                    this.maximumWeight = maximumWeight;
+                    return;
+                }
+                // lower the limit as far as evicted so far, so concurrent mutations don't evict the remainder at once
+                this.maximumWeight = weight;
+            } finally {
+                lruLock.unlock();
+            }
+        }
     }
 
     void setWeigher(ToLongBiFunction<K, V> weigher) {
@@ -131,20 +158,42 @@ public class LRUCache<K, V> implements Cache<K, V> {
         this.weigher = weigher;
     }
 
+    /**
+     * Sizes the segments for the given number of entries in total, so they don't have to grow while the cache fills.
+     *
+     * @param initialCapacity the number of entries to size for
+     */
+    void setInitialCapacity(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity < 0");
+        }
+        this.segmentInitialCapacity = Math.ceilDiv(initialCapacity, NUMBER_OF_SEGMENTS);
+    }
+
     void setRemovalListener(RemovalListener<K, V> removalListener) {
         Objects.requireNonNull(removalListener);
         this.removalListener = removalListener;
     }
 
+    void setStatsCounter(StatsCounter stats) {
+        Objects.requireNonNull(stats);
+        this.stats = stats;
+    }
+
+    void setTicker(Ticker ticker) {
+        Objects.requireNonNull(ticker);
+        this.ticker = ticker;
+    }
+
     /**
      * The relative time used to track time-based evictions.
      *
      * @return the current relative time
      */
     protected long now() {
-        // System.nanoTime takes non-negligible time, so we only use it if we need it
-        // use System.nanoTime because we want relative time, not absolute time
-        return entriesExpireAfterAccess || entriesExpireAfterWrite ? System.nanoTime() : 0;
+        // reading the ticker takes non-negligible time, so we only use it if we need it
+        // the ticker gives relative time, not absolute time
+        return entriesExpireAfterAccess || entriesExpireAfterWrite ? ticker.read() : 0;
     }
 
     // the state of an entry in the LRU list
@@ -158,15 +207,18 @@ public class LRUCache<K, V> implements Cache<K, V> {
         final K key;
         final V value;
         final long writeTime;
+        // computed once, outside the LRU lock, instead of on every link and unlink
+        final long weight;
         volatile long accessTime;
         Entry<K, V> before;
         Entry<K, V> after;
         State state = State.NEW;
 
-        Entry(K key, V value, long writeTime) {
+        Entry(K key, V value, long writeTime, long weight) {
             this.key = key;
             this.value = value;
             this.writeTime = this.accessTime = writeTime;
+            this.weight = weight;
         }
     }
 
@@ -207,29 +259,29 @@ public class LRUCache<K, V> implements Cache<K, V> {
                     entry = future.get();
                 } catch (ExecutionException e) {
                     assert future.isCompletedExceptionally();
-                    misses.increment();
+                    stats.recordMisses(1);
                     return null;
                 } catch (InterruptedException e) {
                     throw new IllegalStateException(e);
                 }
                 if (isExpired(entry, now)) {
-                    misses.increment();
+                    stats.recordMisses(1);
                     if (eagerEvict) {
-                        lruLock.lock();
+                        lockLru();
                         try {
-                            evictEntry(entry);
+                            evictEntry(entry, RemovalNotification.RemovalReason.EXPIRED);
                         } finally {
                             lruLock.unlock();
                         }
                     }
                     return null;
                 } else {
-                    hits.increment();
+                    stats.recordHits(1);
                     entry.accessTime = now;
                     return entry;
                 }
             } else {
-                misses.increment();
+                stats.recordMisses(1);
                 return null;
             }
         }
@@ -243,13 +295,13 @@ public class LRUCache<K, V> implements Cache<K, V> {
          * @return a tuple of the new entry and the existing entry, if there was one otherwise null
          */
         Tuple<Entry<K, V>, Entry<K, V>> put(K key, V value, long now) {
-            Entry<K, V> entry = new Entry<>(key, value, now);
+            Entry<K, V> entry = new Entry<>(key, value, now, weigher.applyAsLong(key, value));
             Entry<K, V> existing = null;
             writeLock.lock();
             try {
                 try {
                     if (map == null) {
-                        map = new HashMap<>();
+                        map = newSegmentMap();
                     }
                     CompletableFuture<Entry<K, V>> future = map.put(key, CompletableFuture.completedFuture(entry));
                     if (future != null) {
@@ -285,7 +337,6 @@ public class LRUCache<K, V> implements Cache<K, V> {
                 writeLock.unlock();
             }
             if (future != null) {
-                evictions.increment();
                 notifyWithInvalidated(future);
             }
         }
@@ -323,17 +374,19 @@ public class LRUCache<K, V> implements Cache<K, V> {
                 writeLock.unlock();
             }
 
-            if (future != null && removed) {
-                evictions.increment();
-                if (notify) {
-                    notifyWithInvalidated(future);
-                }
+            if (future != null && removed && notify) {
+                notifyWithInvalidated(future);
             }
         }
 
     }
 
     public static final int NUMBER_OF_SEGMENTS = 256;
+
+    private HashMap<K, CompletableFuture<Entry<K, V>>> newSegmentMap() {
+        return segmentInitialCapacity == -1 ? new HashMap<>() : HashMap.newHashMap(segmentInitialCapacity);
+    }
+
     @SuppressWarnings("unchecked")
     private final CacheSegment[] segments = (CacheSegment[]) Array.newInstance(CacheSegment.class, NUMBER_OF_SEGMENTS);
 
@@ -401,7 +454,7 @@ public class LRUCache<K, V> implements Cache<K, V> {
             segment.writeLock.lock();
             try {
                 if (segment.map == null) {
-                    segment.map = new HashMap<>();
+                    segment.map = newSegmentMap();
                 }
                 future = segment.map.putIfAbsent(key, completableFuture);
             } finally {
@@ -434,18 +487,37 @@ public class LRUCache<K, V> implements Cache<K, V> {
                 future = completableFuture;
                 completableValue = future.handle(handler);
                 V loaded;
+                CacheEvents.CacheLoad loadEvent = new CacheEvents.CacheLoad();
+                loadEvent.begin();
+                long loadStart = System.nanoTime();
                 try {
                     loaded = loader.load(key);
                 } catch (Exception e) {
+                    stats.recordLoadFailure(System.nanoTime() - loadStart);
+                    loadEvent.complete(this, key, CacheEvents.FAILURE);
                     future.completeExceptionally(e);
                     throw new ExecutionException(e);
                 }
                 if (loaded == null) {
+                    stats.recordLoadFailure(System.nanoTime() - loadStart);
+                    loadEvent.complete(this, key, CacheEvents.NULL);
                     NullPointerException npe = new NullPointerException("loader returned a null value");
                     future.completeExceptionally(npe);
                     throw new ExecutionException(npe);
                 } else {
-                    future.complete(new Entry<>(key, loaded, now));
+                    long loadedWeight;
+                    try {
+                        // before publishing, a throwing weigher must not leave the future incomplete for the waiters
+                        loadedWeight = weigher.applyAsLong(key, loaded);
+                    } catch (RuntimeException e) {
+                        stats.recordLoadFailure(System.nanoTime() - loadStart);
+                        loadEvent.complete(this, key, CacheEvents.FAILURE);
+                        future.completeExceptionally(e);
+                        throw new ExecutionException(e);
+                    }
+                    stats.recordLoadSuccess(System.nanoTime() - loadStart);
+                    loadEvent.complete(this, key, CacheEvents.SUCCESS);
+                    future.complete(new Entry<>(key, loaded, now, loadedWeight));
                 }
             } else {
                 completableValue = future.handle(handler);
@@ -481,7 +553,7 @@ public class LRUCache<K, V> implements Cache<K, V> {
         CacheSegment segment = getCacheSegment(key);
         Tuple<Entry<K, V>, Entry<K, V>> tuple = segment.put(key, value, now);
         boolean replaced = false;
-        lruLock.lock();
+        lockLru();
         try {
             if (tuple.v2() != null && tuple.v2().state == State.EXISTING) {
                 if (unlink(tuple.v2())) {
@@ -493,16 +565,14 @@ public class LRUCache<K, V> implements Cache<K, V> {
             lruLock.unlock();
         }
         if (replaced) {
-            removalListener.onRemoval(
-                new RemovalNotification<>(tuple.v2().key, tuple.v2().value, RemovalNotification.RemovalReason.REPLACED)
-            );
+            notifyRemoval(tuple.v2(), RemovalNotification.RemovalReason.REPLACED);
         }
     }
 
     private void notifyWithInvalidated(CompletableFuture<Entry<K, V>> f) {
         try {
             Entry<K, V> entry = f.get();
-            lruLock.lock();
+            lockLru();
             try {
                 delete(entry, RemovalNotification.RemovalReason.INVALIDATED);
             } finally {
@@ -544,10 +614,13 @@ public class LRUCache<K, V> implements Cache<K, V> {
      * {@link org.elasticsearch.common.cache.RemovalNotification.RemovalReason} INVALIDATED.
      */
     public void invalidateAll() {
+        CacheEvents.InvalidateAll event = new CacheEvents.InvalidateAll();
+        event.begin();
         Entry<K, V> h;
+        long invalidated = 0;
 
         boolean[] haveSegmentLock = new boolean[NUMBER_OF_SEGMENTS];
-        lruLock.lock();
+        lockLru();
         try {
             try {
                 for (int i = 0; i < NUMBER_OF_SEGMENTS; i++) {
@@ -577,9 +650,246 @@ public class LRUCache<K, V> implements Cache<K, V> {
             lruLock.unlock();
         }
         while (h != null) {
-            removalListener.onRemoval(new RemovalNotification<>(h.key, h.value, RemovalNotification.RemovalReason.INVALIDATED));
+            notifyRemoval(h, RemovalNotification.RemovalReason.INVALIDATED);
+            invalidated++;
             h = h.after;
         }
+        event.end();
+        if (event.shouldCommit()) {
+            event.cacheType = getClass();
+            event.count = invalidated;
+            event.commit();
+        }
+    }
+
+    /**
+     * Returns the values for the given keys that are in the cache. The keys are grouped by segment, so each segment's read lock is taken
+     * once, and the entries found are promoted under a single acquisition of the LRU lock.
+     *
+     * @param keys the keys whose associated values are to be returned
+     * @return a map from the keys found in the cache to their values
+     */
+    @Override
+    public Map<K, V> getAll(Iterable<? extends K> keys) {
+        long now = now();
+        List<K> keyList = toList(keys);
+        int[] order = groupBySegment(keyList);
+        List<CompletableFuture<Entry<K, V>>> futures = new ArrayList<>(order.length);
+        for (int from = 0, to; from < order.length; from = to) {
+            to = segmentRunEnd(keyList, order, from);
+            CacheSegment segment = getCacheSegment(keyList.get(order[from]));
+            segment.readLock.lock();
+            try {
+                for (int i = from; i < to; i++) {
+                    futures.add(segment.map == null ? null : segment.map.get(keyList.get(order[i])));
+                }
+            } finally {
+                segment.readLock.unlock();
+            }
+        }
+        Map<K, V> result = new HashMap<>();
+        List<Entry<K, V>> found = new ArrayList<>();
+        for (CompletableFuture<Entry<K, V>> future : futures) {
+            Entry<K, V> entry = null;
+            if (future != null) {
+                try {
+                    entry = future.get();
+                } catch (ExecutionException e) {
+                    assert future.isCompletedExceptionally();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            if (entry == null || isExpired(entry, now)) {
+                stats.recordMisses(1);
+            } else {
+                stats.recordHits(1);
+                entry.accessTime = now;
+                found.add(entry);
+                result.put(entry.key, entry.value);
+            }
+        }
+        if (!found.isEmpty()) {
+            lockLru();
+            try {
+                for (Entry<K, V> entry : found) {
+                    switch (entry.state) {
+                        case DELETED -> {}
+                        case EXISTING -> relinkAtHead(entry);
+                        case NEW -> linkAtHead(entry);
+                    }
+                }
+                evict(now);
+            } finally {
+                lruLock.unlock();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Associates all given values with their keys. The keys are grouped by segment, so each segment's write lock is taken once, and the
+     * new entries are linked and the cache is pruned under a single acquisition of the LRU lock.
+     *
+     * @param entries the keys and values to put in the cache
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> entries) {
+        long now = now();
+        List<K> keyList = new ArrayList<>(entries.size());
+        List<V> valueList = new ArrayList<>(entries.size());
+        for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet()) {
+            keyList.add(entry.getKey());
+            valueList.add(entry.getValue());
+        }
+        int[] order = groupBySegment(keyList);
+        List<Entry<K, V>> added = new ArrayList<>(order.length);
+        for (int i : order) {
+            added.add(new Entry<>(keyList.get(i), valueList.get(i), now, weigher.applyAsLong(keyList.get(i), valueList.get(i))));
+        }
+        List<Entry<K, V>> existing = new ArrayList<>(order.length);
+        for (int from = 0, to; from < order.length; from = to) {
+            to = segmentRunEnd(keyList, order, from);
+            CacheSegment segment = getCacheSegment(keyList.get(order[from]));
+            segment.writeLock.lock();
+            try {
+                if (segment.map == null) {
+                    segment.map = newSegmentMap();
+                }
+                for (int i = from; i < to; i++) {
+                    Entry<K, V> entry = added.get(i);
+                    CompletableFuture<Entry<K, V>> future = segment.map.put(entry.key, CompletableFuture.completedFuture(entry));
+                    existing.add(future == null ? null : future.handle((ok, ex) -> ok).get());
+                }
+            } catch (ExecutionException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                segment.writeLock.unlock();
+            }
+        }
+        List<Entry<K, V>> replaced = new ArrayList<>();
+        lockLru();
+        try {
+            for (int i = 0; i < order.length; i++) {
+                Entry<K, V> previous = existing.get(i);
+                if (previous != null && previous.state == State.EXISTING && unlink(previous)) {
+                    replaced.add(previous);
+                }
+                Entry<K, V> entry = added.get(i);
+                switch (entry.state) {
+                    case DELETED -> {}
+                    case EXISTING -> relinkAtHead(entry);
+                    case NEW -> linkAtHead(entry);
+                }
+            }
+            evict(now);
+        } finally {
+            lruLock.unlock();
+        }
+        for (Entry<K, V> entry : replaced) {
+            notifyRemoval(entry, RemovalNotification.RemovalReason.REPLACED);
+        }
+    }
+
+    /**
+     * Invalidate the associations for the specified keys. The keys are grouped by segment, so each segment's write lock is taken once,
+     * and the entries are unlinked under a single acquisition of the LRU lock. A removal notification will be issued for invalidated
+     * entries with {@link org.elasticsearch.common.cache.RemovalNotification.RemovalReason} INVALIDATED.
+     *
+     * @param keys the keys whose mappings are to be invalidated from the cache
+     */
+    @Override
+    public void invalidateAll(Iterable<? extends K> keys) {
+        List<K> keyList = toList(keys);
+        int[] order = groupBySegment(keyList);
+        List<CompletableFuture<Entry<K, V>>> removed = new ArrayList<>();
+        for (int from = 0, to; from < order.length; from = to) {
+            to = segmentRunEnd(keyList, order, from);
+            CacheSegment segment = getCacheSegment(keyList.get(order[from]));
+            segment.writeLock.lock();
+            try {
+                if (segment.map != null) {
+                    for (int i = from; i < to; i++) {
+                        CompletableFuture<Entry<K, V>> future = segment.map.remove(keyList.get(order[i]));
+                        if (future != null) {
+                            removed.add(future);
+                        }
+                    }
+                    if (segment.map.isEmpty()) {
+                        segment.map = null;
+                    }
+                }
+            } finally {
+                segment.writeLock.unlock();
+            }
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+        List<Entry<K, V>> entries = new ArrayList<>(removed.size());
+        for (CompletableFuture<Entry<K, V>> future : removed) {
+            try {
+                entries.add(future.get());
+            } catch (ExecutionException e) {
+                // ok
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        lockLru();
+        try {
+            for (Entry<K, V> entry : entries) {
+                delete(entry, RemovalNotification.RemovalReason.INVALIDATED);
+            }
+        } finally {
+            lruLock.unlock();
+        }
+    }
+
+    private static <K> List<K> toList(Iterable<? extends K> keys) {
+        if (keys instanceof Collection<? extends K> collection) {
+            return new ArrayList<>(collection);
+        }
+        List<K> list = new ArrayList<>();
+        for (K key : keys) {
+            list.add(key);
+        }
+        return list;
+    }
+
+    /**
+     * Orders the keys by the segment they belong to, so bulk operations take each segment lock once.
+     *
+     * @param keys the keys to group
+     * @return the indices of the keys, ordered by segment
+     */
+    private int[] groupBySegment(List<K> keys) {
+        int[] segmentOf = new int[keys.size()];
+        int[] start = new int[NUMBER_OF_SEGMENTS + 1];
+        for (int i = 0; i < segmentOf.length; i++) {
+            segmentOf[i] = getCacheSegmentIndex(keys.get(i));
+            start[segmentOf[i] + 1]++;
+        }
+        for (int i = 0; i < NUMBER_OF_SEGMENTS; i++) {
+            start[i + 1] += start[i];
+        }
+        int[] order = new int[segmentOf.length];
+        for (int i = 0; i < segmentOf.length; i++) {
+            order[start[segmentOf[i]]++] = i;
+        }
+        return order;
+    }
+
+    /**
+     * @return the end, exclusive, of the run of keys in the same segment as the key at from
+     */
+    private int segmentRunEnd(List<K> keys, int[] order, int from) {
+        int segment = getCacheSegmentIndex(keys.get(order[from]));
+        int to = from + 1;
+        while (to < order.length && getCacheSegmentIndex(keys.get(order[to])) == segment) {
+            to++;
+        }
+        return to;
     }
 
     /**
@@ -587,7 +897,7 @@ public class LRUCache<K, V> implements Cache<K, V> {
      */
     public void refresh() {
         long now = now();
-        lruLock.lock();
+        lockLru();
         try {
             evict(now);
         } finally {
@@ -727,7 +1037,7 @@ public class LRUCache<K, V> implements Cache<K, V> {
             if (entry != null) {
                 CacheSegment segment = getCacheSegment(entry.key);
                 segment.remove(entry.key, entry.value, false);
-                lruLock.lock();
+                lockLru();
                 try {
                     current = null;
                     delete(entry, RemovalNotification.RemovalReason.INVALIDATED);
@@ -739,18 +1049,35 @@ public class LRUCache<K, V> implements Cache<K, V> {
     }
 
     /**
-     * The cache statistics tracking hits, misses and evictions. These are taken on a best-effort basis meaning that
+     * The cache statistics tracking hits, misses, loads and removals. These are taken on a best-effort basis meaning that
      * they could be out-of-date mid-flight.
      *
      * @return the current cache statistics
      */
     public Stats stats() {
-        return new Stats(hits.sum(), misses.sum(), evictions.sum());
+        return stats.snapshot();
+    }
+
+    /**
+     * Takes the LRU lock, recording the wait if it is contended.
+     */
+    private void lockLru() {
+        if (lruLock.tryLock()) {
+            return;
+        }
+        CacheEvents.LruLockContention event = new CacheEvents.LruLockContention();
+        event.begin();
+        lruLock.lock();
+        event.end();
+        if (event.shouldCommit()) {
+            event.queueLength = lruLock.getQueueLength();
+            event.commit();
+        }
     }
 
     private void promote(Entry<K, V> entry, long now) {
         boolean promoted = true;
-        lruLock.lock();
+        lockLru();
         try {
             switch (entry.state) {
                 case DELETED -> promoted = false;
@@ -768,31 +1095,42 @@ public class LRUCache<K, V> implements Cache<K, V> {
     private void evict(long now) {
         assert lruLock.isHeldByCurrentThread();
 
-        while (tail != null && shouldPrune(tail, now)) {
-            evictEntry(tail);
+        while (tail != null) {
+            if (isExpired(tail, now)) {
+                evictEntry(tail, RemovalNotification.RemovalReason.EXPIRED);
+            } else if (exceedsWeight()) {
+                evictEntry(tail, RemovalNotification.RemovalReason.EVICTED);
+            } else {
+                break;
+            }
         }
     }
 
-    private void evictEntry(Entry<K, V> entry) {
+    private void evictEntry(Entry<K, V> entry, RemovalNotification.RemovalReason removalReason) {
         assert lruLock.isHeldByCurrentThread();
 
         CacheSegment segment = getCacheSegment(entry.key);
         if (segment != null) {
             segment.remove(entry.key, entry.value, false);
         }
-        delete(entry, RemovalNotification.RemovalReason.EVICTED);
+        delete(entry, removalReason);
     }
 
     private void delete(Entry<K, V> entry, RemovalNotification.RemovalReason removalReason) {
         assert lruLock.isHeldByCurrentThread();
 
         if (unlink(entry)) {
-            removalListener.onRemoval(new RemovalNotification<>(entry.key, entry.value, removalReason));
+            notifyRemoval(entry, removalReason);
         }
     }
 
-    private boolean shouldPrune(Entry<K, V> entry, long now) {
-        return exceedsWeight() || isExpired(entry, now);
+    private void notifyRemoval(Entry<K, V> entry, RemovalNotification.RemovalReason removalReason) {
+        if (removalReason == RemovalNotification.RemovalReason.EVICTED) {
+            stats.recordEviction(entry.weight);
+        } else {
+            stats.recordRemoval(removalReason);
+        }
+        removalListener.onRemoval(new RemovalNotification<>(entry.key, entry.value, removalReason));
     }
 
     private boolean exceedsWeight() {
@@ -838,7 +1176,7 @@ public class LRUCache<K, V> implements Cache<K, V> {
             }
 
             count--;
-            weight -= weigher.applyAsLong(entry.key, entry.value);
+            weight -= entry.weight;
             entry.state = State.DELETED;
             return true;
         } else {
@@ -860,7 +1198,7 @@ public class LRUCache<K, V> implements Cache<K, V> {
         }
 
         count++;
-        weight += weigher.applyAsLong(entry.key, entry.value);
+        weight += entry.weight;
         entry.state = State.EXISTING;
     }
 
@@ -874,6 +1212,10 @@ public class LRUCache<K, V> implements Cache<K, V> {
     }
 
     private CacheSegment getCacheSegment(K key) {
-        return segments[key.hashCode() & 0xff];
+        return segments[getCacheSegmentIndex(key)];
+    }
+
+    private static int getCacheSegmentIndex(Object key) {
+        return key.hashCode() & 0xff;
     }
 }
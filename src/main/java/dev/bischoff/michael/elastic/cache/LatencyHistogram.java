@@ -0,0 +1,162 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free log-linear histogram of latencies in nanoseconds.
+ * <p>
+ * Every power of two is split into 16 linear buckets, so a recorded value is off by at most 1/16th, ~6%, and the
+ * buckets cover 0ns up to ~18 minutes in a few hundred counters; larger values land in the last bucket. Recording is
+ * a single atomic increment. Counters are striped by thread, so concurrent recorders rarely hit the same cache line.
+ * </p>
+ * {@link #snapshot()} resets the histogram while reading it, so consecutive snapshots cover consecutive intervals. A
+ * value recorded concurrently ends up in exactly one of them.
+ */
+public final class LatencyHistogram {
+
+    // linear buckets per power of two, as a power of two
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // values from 2^MAX_EXPONENT on are counted in the last bucket
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
+
+    public LatencyHistogram() {
+        // the next power of two from the number of cores
+        int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1) << 1);
+        this.stripes = new AtomicLongArray[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+        this.stripeMask = stripes - 1;
+    }
+
+    /**
+     * @param nanos the latency to record, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long threadId = Thread.currentThread().threadId();
+        // spread sequential thread ids over the stripes
+        int stripe = (int) ((threadId * 0x9E3779B97F4A7C15L) >>> 32) & stripeMask;
+        stripes[stripe].getAndIncrement(bucketOf(nanos));
+    }
+
+    /**
+     * Reads and resets the counts.
+     *
+     * @return the latencies recorded since the previous snapshot
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                if (stripe.getPlain(i) != 0) {
+                    counts[i] += stripe.getAndSet(i, 0);
+                }
+            }
+        }
+        return new Snapshot(counts);
+    }
+
+    static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(nanos, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the smallest value counted in the bucket
+     */
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * The latencies recorded in an interval.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+
+        Snapshot(long[] counts) {
+            this.counts = counts;
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            this.count = count;
+        }
+
+        /**
+         * @return the number of recorded values
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * @param quantile between 0 and 1, e.g. 0.99 for the 99th percentile
+         * @return the latency in nanoseconds the given fraction of values is at or below, the lower bound of its
+         *         bucket, 0 if nothing was recorded
+         */
+        public long valueAt(double quantile) {
+            if (!(quantile >= 0 && quantile <= 1)) {
+                throw new IllegalArgumentException("quantile not in [0, 1]");
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return lowerBound(i);
+                }
+            }
+            return lowerBound(counts.length - 1);
+        }
+
+        public long p50() {
+            return valueAt(0.5);
+        }
+
+        public long p99() {
+            return valueAt(0.99);
+        }
+
+        public long p999() {
+            return valueAt(0.999);
+        }
+
+        /**
+         * @return the lower bound of the highest bucket with a value, 0 if nothing was recorded
+         */
+        public long max() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0) {
+                    return lowerBound(i);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{count=" + count + ", p50=" + p50() + ", p99=" + p99() + ", p999=" + p999() + ", max=" + max() + '}';
+        }
+    }
+}
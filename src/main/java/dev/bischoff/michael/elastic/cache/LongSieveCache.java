@@ -0,0 +1,642 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+
+import static dev.bischoff.michael.elastic.cache.RemovalNotification.RemovalReason.*;
+
+/**
+ * A SIEVE cache specialized for primitive long keys, such as segment or doc ids.
+ * <p>
+ * Entries live in open-addressing tables of parallel arrays, keys in a {@code long[]}, values in an {@code Object[]}
+ * and the visited bits in a {@code byte[]}, so an entry costs about 18 bytes besides the value itself and
+ * {@link #get(long)} and {@link #put(long, Object)} neither box the key nor allocate. The table is split into
+ * segments, each guarded by a {@link StampedLock}; lookups are optimistic reads that only take the read lock when they
+ * raced with a write.
+ * </p>
+ * The cache is bounded by the number of entries, evenly divided over the segments. A write to a full segment evicts
+ * inline, the segment's hand sweeps the array indices like SIEVE's hand sweeps the queue: visited entries get their bit
+ * cleared, the first unvisited entry is evicted. Slots are filled in hash order rather than insertion order, so this
+ * approximates SIEVE, much like CLOCK approximates LRU. As eviction happens on the writer the bound is hard.
+ * <p>
+ * {@link #asCache()} adapts the cache to the {@link Cache} interface, boxing keys on the way.
+ * </p>
+ *
+ * @param <Value> type of values this cache can hold.
+ */
+public class LongSieveCache<Value> {
+
+    private static final class Segment {
+        final StampedLock lock = new StampedLock();
+        final long[] keys;
+        // null for empty slots
+        final Object[] values;
+        final byte[] visited;
+        final int mask;
+        final int capacity;
+        // guarded by the write lock
+        int count;
+        int hand;
+
+        Segment(int capacity) {
+            // keep the load factor at or under 0.75, so probe sequences stay short and always end at an empty slot
+            int length = Integer.highestOneBit(Math.max(2, capacity + capacity / 3 + 1) - 1) << 1;
+            this.keys = new long[length];
+            this.values = new Object[length];
+            this.visited = new byte[length];
+            this.mask = length - 1;
+            this.capacity = capacity;
+        }
+    }
+
+    private final Segment[] segments;
+    // the number of hash bits selecting the segment
+    private final int segmentBits;
+    private final RemovalListener<Long, Value> removalListener;
+    private final StatsCounter stats = StatsCounter.concurrent();
+    // loads in flight, so concurrent misses on a key share one load, only touched on a miss
+    private final ConcurrentMap<Long, CompletableFuture<Value>> loading = new ConcurrentHashMap<>();
+
+    // segments below this capacity evict too far from globally optimal
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+
+    /**
+     * @param maximumSize the maximum number of entries, must be greater than 0
+     */
+    public LongSieveCache(int maximumSize) {
+        this(maximumSize, null);
+    }
+
+    /**
+     * @param maximumSize the maximum number of entries, must be greater than 0
+     * @param removalListener notified after an entry was removed, outside of any lock, may be null
+     */
+    public LongSieveCache(int maximumSize, RemovalListener<Long, Value> removalListener) {
+        this(maximumSize, Runtime.getRuntime().availableProcessors() * 4, removalListener);
+    }
+
+    /**
+     * @param maximumSize the maximum number of entries, must be greater than 0
+     * @param concurrency the desired number of segments, rounded to a power of two and lowered for small caches
+     * @param removalListener notified after an entry was removed, outside of any lock, may be null
+     */
+    public LongSieveCache(int maximumSize, int concurrency, RemovalListener<Long, Value> removalListener) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize <= 0");
+        }
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("concurrency <= 0");
+        }
+        int segmentCount = Integer.highestOneBit(Math.min(concurrency, Math.max(1, maximumSize / MIN_SEGMENT_CAPACITY)));
+        this.segmentBits = Integer.numberOfTrailingZeros(segmentCount);
+        this.segments = new Segment[segmentCount];
+        int segmentCapacity = Math.ceilDiv(maximumSize, segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+        this.removalListener = removalListener != null ? removalListener : (notification) -> {};
+    }
+
+    /**
+     * @return the value for the key or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public Value get(long key) {
+        long hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long stamp = segment.lock.tryOptimisticRead();
+        int index = indexOf(segment, key, hash);
+        Object value = index < 0 ? null : segment.values[index];
+        if (!segment.lock.validate(stamp)) {
+            stamp = segment.lock.readLock();
+            try {
+                index = indexOf(segment, key, hash);
+                value = index < 0 ? null : segment.values[index];
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        if (value == null) {
+            stats.recordMisses(1);
+            return null;
+        }
+        stats.recordHits(1);
+        // racy on purpose, at worst the bit lands on an entry that just replaced ours
+        if (segment.visited[index] == 0) {
+            segment.visited[index] = 1;
+        }
+        return (Value) value;
+    }
+
+    /**
+     * Associates the value with the key, replacing any previous value. If the key is new and its segment is full, an
+     * entry is evicted first.
+     */
+    public void put(long key, Value value) {
+        Objects.requireNonNull(value);
+        long hash = hash(key);
+        Segment segment = segmentFor(hash);
+        long evictedKey = 0;
+        Object evicted = null;
+        Object replaced = null;
+        long stamp = segment.lock.writeLock();
+        try {
+            int index = indexOf(segment, key, hash);
+            if (index >= 0) {
+                replaced = segment.values[index];
+                segment.values[index] = value;
+            } else {
+                if (segment.count == segment.capacity) {
+                    int victim = sieve(segment);
+                    evictedKey = segment.keys[victim];
+                    evicted = segment.values[victim];
+                    delete(segment, victim);
+                }
+                insert(segment, key, hash, value);
+            }
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+        if (evicted != null) {
+            notifyRemoval(evictedKey, evicted, EVICTED);
+        }
+        if (replaced != null) {
+            notifyRemoval(key, replaced, REPLACED);
+        }
+    }
+
+    /**
+     * Returns the value for the key, loading it if there is none. The loader runs without holding the segment's lock,
+     * so it may use this cache and doesn't hold up other keys. Concurrent loads of the same key wait for the first one
+     * rather than invoking the loader again. A value put while the load was in flight wins over the loaded one, an
+     * invalidation keeps the loaded value out of the cache.
+     *
+     * @return the existing or loaded value, null if the loader returned null
+     * @throws ExecutionException if the loader threw
+     */
+    @SuppressWarnings("unchecked")
+    public Value computeIfAbsent(long key, CacheLoader<Long, Value> loader) throws ExecutionException {
+        Objects.requireNonNull(loader);
+        Value existing = get(key);
+        if (existing != null) {
+            return existing;
+        }
+        CompletableFuture<Value> future = new CompletableFuture<>();
+        CompletableFuture<Value> inFlight = loading.putIfAbsent(key, future);
+        if (inFlight != null) {
+            try {
+                return inFlight.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ExecutionException(e);
+            }
+        }
+        long hash = hash(key);
+        Segment segment = segmentFor(hash);
+        try {
+            // a load that completed between the lookup and registering ours
+            long stamp = segment.lock.readLock();
+            try {
+                int index = indexOf(segment, key, hash);
+                if (index >= 0) {
+                    existing = (Value) segment.values[index];
+                }
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+            if (existing != null) {
+                future.complete(existing);
+                return existing;
+            }
+            Value value = load(key, loader);
+            if (value != null) {
+                value = install(segment, key, hash, value, future);
+            }
+            future.complete(value);
+            return value;
+        } catch (ExecutionException e) {
+            future.completeExceptionally(e.getCause());
+            throw e;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    private Value load(long key, CacheLoader<Long, Value> loader) throws ExecutionException {
+        CacheEvents.CacheLoad loadEvent = new CacheEvents.CacheLoad();
+        loadEvent.begin();
+        long loadStart = System.nanoTime();
+        Value loaded;
+        try {
+            loaded = loader.load(key);
+        } catch (Exception e) {
+            stats.recordLoadFailure(System.nanoTime() - loadStart);
+            loadEvent.complete(this, key, CacheEvents.FAILURE);
+            throw new ExecutionException(e);
+        }
+        if (loaded == null) {
+            stats.recordLoadFailure(System.nanoTime() - loadStart);
+            loadEvent.complete(this, key, CacheEvents.NULL);
+            return null;
+        }
+        stats.recordLoadSuccess(System.nanoTime() - loadStart);
+        loadEvent.complete(this, key, CacheEvents.SUCCESS);
+        return loaded;
+    }
+
+    /**
+     * Inserts a loaded value unless a value was put or the key invalidated meanwhile, evicting if the segment is full.
+     *
+     * @return the value now in the cache, or the loaded value if the key was invalidated
+     */
+    @SuppressWarnings("unchecked")
+    private Value install(Segment segment, long key, long hash, Value loaded, CompletableFuture<Value> future) {
+        long evictedKey = 0;
+        Object evicted = null;
+        long stamp = segment.lock.writeLock();
+        try {
+            int index = indexOf(segment, key, hash);
+            if (index >= 0) {
+                return (Value) segment.values[index];
+            }
+            // invalidations drop the load before taking the lock
+            if (loading.get(key) != future) {
+                return loaded;
+            }
+            if (segment.count == segment.capacity) {
+                int victim = sieve(segment);
+                evictedKey = segment.keys[victim];
+                evicted = segment.values[victim];
+                delete(segment, victim);
+            }
+            insert(segment, key, hash, loaded);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+        if (evicted != null) {
+            notifyRemoval(evictedKey, evicted, EVICTED);
+        }
+        return loaded;
+    }
+
+    /**
+     * Removes the entry for the key, if any.
+     */
+    public void invalidate(long key) {
+        invalidate(key, null);
+    }
+
+    /**
+     * Removes the entry for the key if its value equals the given value, any value if null.
+     */
+    private void invalidate(long key, Object expected) {
+        if (expected == null && !loading.isEmpty()) {
+            // keeps a load in flight from installing a value that predates the invalidation
+            loading.remove(key);
+        }
+        long hash = hash(key);
+        Segment segment = segmentFor(hash);
+        Object removed = null;
+        long stamp = segment.lock.writeLock();
+        try {
+            int index = indexOf(segment, key, hash);
+            if (index >= 0 && (expected == null || Objects.equals(segment.values[index], expected))) {
+                removed = segment.values[index];
+                delete(segment, index);
+            }
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+        if (removed != null) {
+            notifyRemoval(key, removed, INVALIDATED);
+        }
+    }
+
+    /**
+     * Removes all entries, one segment at a time.
+     */
+    public void invalidateAll() {
+        loading.clear();
+        for (Segment segment : segments) {
+            long[] keys;
+            Object[] values;
+            long stamp = segment.lock.writeLock();
+            try {
+                keys = new long[segment.count];
+                values = new Object[segment.count];
+                int removed = 0;
+                for (int i = 0; i <= segment.mask; i++) {
+                    if (segment.values[i] != null) {
+                        keys[removed] = segment.keys[i];
+                        values[removed++] = segment.values[i];
+                        segment.values[i] = null;
+                        segment.visited[i] = 0;
+                    }
+                }
+                segment.count = 0;
+                segment.hand = 0;
+            } finally {
+                segment.lock.unlockWrite(stamp);
+            }
+            for (int i = 0; i < keys.length; i++) {
+                notifyRemoval(keys[i], values[i], INVALIDATED);
+            }
+        }
+    }
+
+    /**
+     * @return the number of entries, best-effort
+     */
+    public int count() {
+        int count = 0;
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                count += segment.count;
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the maximum number of entries, the requested maximum size rounded up to a multiple of the number of segments
+     */
+    public int capacity() {
+        return segments[0].capacity * segments.length;
+    }
+
+    public Cache.Stats stats() {
+        return stats.snapshot();
+    }
+
+    /**
+     * @return a view of this cache as a {@link Cache}, boxing keys
+     */
+    public Cache<Long, Value> asCache() {
+        return new CacheView();
+    }
+
+    /**
+     * Moves the hand to the next entry to evict, clearing the visited bits it passes. Must hold the write lock of a
+     * full segment.
+     *
+     * @return the index of the entry to evict
+     */
+    private static int sieve(Segment segment) {
+        while (true) {
+            int index = segment.hand;
+            segment.hand = (index + 1) & segment.mask;
+            if (segment.values[index] == null) {
+                continue;
+            }
+            if (segment.visited[index] != 0) {
+                segment.visited[index] = 0;
+                continue;
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Must hold the write lock, the key must not be present and the segment must not be full.
+     */
+    private static void insert(Segment segment, long key, long hash, Object value) {
+        int index = (int) hash & segment.mask;
+        while (segment.values[index] != null) {
+            index = (index + 1) & segment.mask;
+        }
+        segment.keys[index] = key;
+        segment.visited[index] = 0;
+        segment.values[index] = value;
+        segment.count++;
+    }
+
+    /**
+     * Removes the entry at the index, shifting entries of the same probe sequence back so lookups never need
+     * tombstones. Must hold the write lock.
+     */
+    private static void delete(Segment segment, int index) {
+        int mask = segment.mask;
+        int next = index;
+        while (true) {
+            next = (next + 1) & mask;
+            if (segment.values[next] == null) {
+                break;
+            }
+            int home = (int) hash(segment.keys[next]) & mask;
+            // the entry at next may only move back to index if index lies on its probe sequence, between home and next
+            boolean stays = index <= next ? (index < home && home <= next) : (index < home || home <= next);
+            if (!stays) {
+                segment.keys[index] = segment.keys[next];
+                segment.values[index] = segment.values[next];
+                segment.visited[index] = segment.visited[next];
+                index = next;
+            }
+        }
+        segment.values[index] = null;
+        segment.visited[index] = 0;
+        segment.count--;
+    }
+
+    /**
+     * May be called without holding a lock, the result is only valid if the caller validates afterwards. The probe is
+     * bounded by the table length so a racing write can't trap it.
+     *
+     * @return the index of the key or -1
+     */
+    private static int indexOf(Segment segment, long key, long hash) {
+        int index = (int) hash & segment.mask;
+        for (int probes = 0; probes <= segment.mask; probes++) {
+            if (segment.values[index] == null) {
+                return -1;
+            }
+            if (segment.keys[index] == key) {
+                return index;
+            }
+            index = (index + 1) & segment.mask;
+        }
+        return -1;
+    }
+
+    private Segment segmentFor(long hash) {
+        // the low bits pick the slot, the high bits the segment
+        return segmentBits == 0 ? segments[0] : segments[(int) (hash >>> (64 - segmentBits))];
+    }
+
+    private static long hash(long key) {
+        // murmur3 finalizer, ids tend to be sequential
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void notifyRemoval(long key, Object value, RemovalNotification.RemovalReason reason) {
+        if (reason == EVICTED) {
+            stats.recordEviction(1);
+        } else {
+            stats.recordRemoval(reason);
+        }
+        removalListener.onRemoval(new RemovalNotification<>(key, (Value) value, reason));
+    }
+
+    /**
+     * Collects the entries of a segment under its read lock, for iteration.
+     */
+    private static int snapshot(Segment segment, long[] keys, Object[] values) {
+        int n = 0;
+        for (int i = 0; i <= segment.mask && n < keys.length; i++) {
+            if (segment.values[i] != null) {
+                keys[n] = segment.keys[i];
+                values[n++] = segment.values[i];
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Boxing view of the cache as a {@link Cache}.
+     */
+    private class CacheView implements Cache<Long, Value> {
+        @Override
+        public Value get(Long key) {
+            return LongSieveCache.this.get(key);
+        }
+
+        @Override
+        public void put(Long key, Value value) {
+            LongSieveCache.this.put(key, value);
+        }
+
+        @Override
+        public Value computeIfAbsent(Long key, CacheLoader<Long, Value> loader) throws ExecutionException {
+            return LongSieveCache.this.computeIfAbsent(key, loader);
+        }
+
+        @Override
+        public void invalidate(Long key) {
+            LongSieveCache.this.invalidate(key);
+        }
+
+        @Override
+        public void invalidate(Long key, Value value) {
+            if (value != null) {
+                LongSieveCache.this.invalidate(key, value);
+            }
+        }
+
+        @Override
+        public void invalidateAll() {
+            LongSieveCache.this.invalidateAll();
+        }
+
+        @Override
+        public int count() {
+            return LongSieveCache.this.count();
+        }
+
+        @Override
+        public long weight() {
+            return count();
+        }
+
+        @Override
+        public Iterable<Long> keys() {
+            return () -> new SnapshotIterator<>(true);
+        }
+
+        @Override
+        public Iterable<Value> values() {
+            return () -> new SnapshotIterator<>(false);
+        }
+
+        @Override
+        public Stats stats() {
+            return LongSieveCache.this.stats();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEach(BiConsumer<Long, Value> consumer) {
+            SnapshotIterator<Long> iterator = new SnapshotIterator<>(true);
+            while (iterator.hasNext()) {
+                Long key = iterator.next();
+                consumer.accept(key, (Value) iterator.values[iterator.position - 1]);
+            }
+        }
+    }
+
+    /**
+     * Walks the segments one after the other, taking a snapshot of each. {@link Iterator#remove()} only removes the
+     * entry if it still has the value that was returned.
+     */
+    private class SnapshotIterator<Type> implements Iterator<Type> {
+        private final boolean keysOnly;
+        private int nextSegment = 0;
+        private long[] keys = new long[0];
+        private Object[] values = new Object[0];
+        private int size = 0;
+        private int position = 0;
+        private boolean canRemove;
+
+        private SnapshotIterator(boolean keysOnly) {
+            this.keysOnly = keysOnly;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (position == size) {
+                if (nextSegment == segments.length) {
+                    return false;
+                }
+                Segment segment = segments[nextSegment++];
+                long stamp = segment.lock.readLock();
+                try {
+                    keys = new long[segment.count];
+                    values = new Object[segment.count];
+                    size = snapshot(segment, keys, values);
+                } finally {
+                    segment.lock.unlockRead(stamp);
+                }
+                position = 0;
+                canRemove = false;
+            }
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Type next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            canRemove = true;
+            int index = position++;
+            return keysOnly ? (Type) Long.valueOf(keys[index]) : (Type) values[index];
+        }
+
+        @Override
+        public void remove() {
+            if (!canRemove) {
+                throw new IllegalStateException();
+            }
+            canRemove = false;
+            invalidate(keys[position - 1], values[position - 1]);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of threads doing background maintenance, such as eviction, for any number of caches.
+ * <p>
+ * Caches hand in a {@link Task} when they need maintenance. Tasks are run in the order they were handed in and each
+ * run is limited to a batch of steps, a task that has more work left is put at the back of the queue again. So
+ * maintenance is drained round-robin between caches and a single large cache can't starve the others.
+ * </p>
+ * By default every {@link SieveCache} uses the {@link #shared()} scheduler, so the number of maintenance threads doesn't
+ * grow with the number of caches. A dedicated scheduler can be supplied through {@link CacheBuilder}, it is then up to
+ * the caller to {@link #close()} it once the caches using it are closed.
+ */
+public final class MaintenanceScheduler implements AutoCloseable {
+
+    /**
+     * Maintenance work of a single cache.
+     */
+    @FunctionalInterface
+    interface Task {
+        /**
+         * Does at most the given number of steps of maintenance.
+         *
+         * @param maxSteps the maximum number of steps, what a step is is up to the task
+         * @return true if there is more work left and the task should be run again
+         */
+        boolean maintain(int maxSteps);
+    }
+
+    public static final int DEFAULT_BATCH_STEPS = 1024;
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final BlockingQueue<Task> pending = new LinkedBlockingQueue<>();
+    private final Thread[] workers;
+    private final int batchSteps;
+    private final boolean shared;
+    private volatile boolean closed;
+
+    private static final class SharedHolder {
+        private static final MaintenanceScheduler SHARED = new MaintenanceScheduler(
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+            DEFAULT_BATCH_STEPS,
+            true
+        );
+    }
+
+    /**
+     * The scheduler used by caches that weren't given one. It is created on first use, its threads are daemon threads
+     * and it can't be closed.
+     *
+     * @return the shared scheduler
+     */
+    public static MaintenanceScheduler shared() {
+        return SharedHolder.SHARED;
+    }
+
+    /**
+     * @param threads the number of maintenance threads, must be greater than 0
+     */
+    public MaintenanceScheduler(int threads) {
+        this(threads, DEFAULT_BATCH_STEPS);
+    }
+
+    /**
+     * @param threads the number of maintenance threads, must be greater than 0
+     * @param batchSteps the number of steps a cache gets before the next cache in line is served, must be greater than 0
+     */
+    public MaintenanceScheduler(int threads, int batchSteps) {
+        this(threads, batchSteps, false);
+    }
+
+    private MaintenanceScheduler(int threads, int batchSteps, boolean shared) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads <= 0");
+        }
+        if (batchSteps <= 0) {
+            throw new IllegalArgumentException("batchSteps <= 0");
+        }
+        this.batchSteps = batchSteps;
+        this.shared = shared;
+        this.workers = new Thread[threads];
+        int poolNumber = POOL_NUMBER.incrementAndGet();
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(this::work, "cache-maintenance-" + poolNumber + "-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Queues the task. Callers are expected to coalesce, a task that is already queued or running should not be handed
+     * in again. Once the scheduler is closed the task is run on the calling thread instead.
+     *
+     * @param task the maintenance to run
+     */
+    void schedule(Task task) {
+        if (closed) {
+            runToCompletion(task);
+            return;
+        }
+        pending.add(task);
+        if (closed && pending.remove(task)) {
+            // raced with close(), the workers might not pick it up anymore
+            runToCompletion(task);
+        }
+    }
+
+    private void runToCompletion(Task task) {
+        while (task.maintain(batchSteps)) {
+            // keep going, there is nobody to hand off to
+        }
+    }
+
+    private void work() {
+        while (!closed) {
+            Task task;
+            try {
+                task = pending.take();
+            } catch (InterruptedException e) {
+                // closing
+                break;
+            }
+            try {
+                if (task.maintain(batchSteps)) {
+                    pending.add(task);
+                }
+            } catch (RuntimeException | Error e) {
+                // the task is responsible for its own state, don't let one cache take down maintenance for all others
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
+
+    /**
+     * Stops the maintenance threads. Tasks still queued are run on the calling thread, tasks handed in afterwards on the
+     * thread handing them in.
+     *
+     * @throws UnsupportedOperationException if this is the {@link #shared()} scheduler
+     */
+    @Override
+    public void close() {
+        if (shared) {
+            throw new UnsupportedOperationException("the shared maintenance scheduler can't be closed");
+        }
+        closed = true;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        Task task;
+        while ((task = pending.poll()) != null) {
+            runToCompletion(task);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ticker that only moves when told to, making expiration deterministic in tests and benchmarks.
+ */
+public final class ManualTicker implements Ticker {
+
+    private final AtomicLong nanos;
+
+    /**
+     * Starts at 0.
+     */
+    public ManualTicker() {
+        this(0);
+    }
+
+    /**
+     * @param startNanos the time to start at
+     */
+    public ManualTicker(long startNanos) {
+        this.nanos = new AtomicLong(startNanos);
+    }
+
+    /**
+     * Moves the time forward.
+     *
+     * @param nanos the number of nanoseconds to move, must not be negative
+     */
+    public void advance(long nanos) {
+        if (nanos < 0) {
+            throw new IllegalArgumentException("nanos < 0");
+        }
+        this.nanos.addAndGet(nanos);
+    }
+
+    /**
+     * Moves the time forward.
+     *
+     * @param duration how far to move, must not be negative
+     */
+    public void advance(TimeValue duration) {
+        advance(duration.getNanos());
+    }
+
+    @Override
+    public long read() {
+        return nanos.get();
+    }
+}
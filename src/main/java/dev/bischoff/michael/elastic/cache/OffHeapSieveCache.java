@@ -0,0 +1,308 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.lang.foreign.MemorySegment;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToLongBiFunction;
+
+import dev.bischoff.michael.elastic.cache.SlabAllocator.Slot;
+
+/**
+ * A {@link SieveCache} that keeps its values serialized in off-heap memory, out of reach of the garbage collector.
+ * <p>
+ * Only the keys and a small {@link Slot} per entry, referring to the serialized value, live on the heap. Values are
+ * serialized with the given {@link ValueSerializer} into chunks of slabs allocated through the Foreign Memory API, see
+ * {@link SlabAllocator}. When an entry is evicted, replaced or invalidated its chunk goes back onto a free list and is
+ * reused for later values of the same size class. Chunks don't move between size classes, so when the distribution of
+ * value sizes shifts the off-heap footprint can grow beyond the maximum weight, by at most the maximum weight for every
+ * size class in use, see {@link #offHeapBytes()}.
+ * </p>
+ * The weight of an entry is the number of off-heap bytes it takes, so the maximum weight is in bytes. Every read copies
+ * the serialized value onto the heap and deserializes it, so each call to {@link #get(Object)} returns a new instance.
+ * A read racing with the removal of its entry sees the entry as absent rather than a value that was reused.
+ * <p>
+ * {@link #close()} frees the off-heap memory, the cache must not be used afterwards.
+ * </p>
+ *
+ * @param <Key> type of keys used for lookup
+ * @param <Value> type of values this cache can hold.
+ */
+public class OffHeapSieveCache<Key, Value> implements Cache<Key, Value> {
+
+    private final SlabAllocator allocator;
+    private final ValueSerializer<Value> serializer;
+    private final SieveCache<Key, Slot> slots;
+
+    /**
+     * @param maxWeight the maximum number of off-heap bytes taken by values, null for no limit
+     * @param serializer turns values into bytes and back
+     * @param removalListener notified with the deserialized value when an entry is removed, may be null
+     */
+    public OffHeapSieveCache(Long maxWeight, ValueSerializer<Value> serializer, RemovalListener<Key, Value> removalListener) {
+        this(SlabAllocator.DEFAULT_SLAB_SIZE, serializer, removalListener, (listener, weigher) -> new SieveCache<>(null, maxWeight, listener, weigher));
+    }
+
+    /**
+     * @param slabSize the size of the slabs memory is allocated in, a power of two, also the maximum serialized size of a value
+     * @param serializer turns values into bytes and back
+     * @param removalListener notified with the deserialized value when an entry is removed, may be null
+     * @param slotCacheFactory creates the cache holding the slots, given the removal listener and weigher it must use
+     */
+    OffHeapSieveCache(
+        int slabSize,
+        ValueSerializer<Value> serializer,
+        RemovalListener<Key, Value> removalListener,
+        SlotCacheFactory<Key> slotCacheFactory
+    ) {
+        this.allocator = new SlabAllocator(slabSize);
+        this.serializer = Objects.requireNonNull(serializer);
+        this.slots = slotCacheFactory.create(notification -> {
+            Slot slot = notification.getValue();
+            try {
+                if (removalListener != null) {
+                    removalListener.onRemoval(new RemovalNotification<>(notification.getKey(), read(slot), notification.getRemovalReason()));
+                }
+            } finally {
+                allocator.free(slot);
+            }
+        }, (key, slot) -> allocator.chunkSize(slot.length()));
+    }
+
+    /**
+     * Creates the {@link SieveCache} holding the slots, so the builder can apply its settings.
+     */
+    @FunctionalInterface
+    interface SlotCacheFactory<Key> {
+        SieveCache<Key, Slot> create(RemovalListener<Key, Slot> removalListener, ToLongBiFunction<Key, Slot> weigher);
+    }
+
+    @Override
+    public Value get(Key key) {
+        Slot slot = slots.get(key);
+        return slot == null ? null : read(slot);
+    }
+
+    @Override
+    public void put(Key key, Value value) {
+        Slot slot = write(value);
+        try {
+            slots.put(key, slot);
+        } catch (CacheFullException e) {
+            // rejected by the hard bound, the slot never made it into the cache
+            allocator.free(slot);
+            throw e;
+        }
+    }
+
+    @Override
+    public Value computeIfAbsent(Key key, CacheLoader<Key, Value> loader) throws ExecutionException {
+        Objects.requireNonNull(loader);
+        // the value this call loaded, admission may reject it and free its slot before it can be read back
+        var loadedValue = new AtomicReference<Value>();
+        while (true) {
+            Slot slot = slots.computeIfAbsent(key, loadKey -> {
+                Value loaded = loader.load(loadKey);
+                loadedValue.set(loaded);
+                return loaded == null ? null : write(loaded);
+            });
+            if (slot == null) {
+                return null;
+            }
+            Value value = read(slot);
+            if (value != null) {
+                return value;
+            }
+            if (loadedValue.get() != null) {
+                // our own value, dropped right away, don't load it again
+                return loadedValue.get();
+            }
+            // removed while we were reading, load again
+        }
+    }
+
+    @Override
+    public Map<Key, Value> getAll(Iterable<? extends Key> keys) {
+        Map<Key, Value> result = new HashMap<>();
+        slots.getAll(keys).forEach((key, slot) -> {
+            Value value = read(slot);
+            if (value != null) {
+                result.put(key, value);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Serializes all values first and then puts the slots in one batch.
+     */
+    @Override
+    public void putAll(Map<? extends Key, ? extends Value> entries) {
+        Map<Key, Slot> written = new HashMap<>();
+        try {
+            entries.forEach((key, value) -> written.put(key, write(value)));
+            slots.putAll(written);
+        } catch (RuntimeException e) {
+            if (e instanceof CacheFullException || written.size() < entries.size()) {
+                // the batch never made it into the cache
+                written.values().forEach(allocator::free);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void invalidate(Key key) {
+        slots.invalidate(key);
+    }
+
+    @Override
+    public void invalidate(Key key, Value value) {
+        Slot slot = slots.get(key);
+        if (slot != null && Objects.equals(read(slot), value)) {
+            slots.invalidate(key, slot);
+        }
+    }
+
+    @Override
+    public void invalidateAll(Iterable<? extends Key> keys) {
+        slots.invalidateAll(keys);
+    }
+
+    @Override
+    public void invalidateAll() {
+        slots.invalidateAll();
+    }
+
+    @Override
+    public void refresh() {
+        slots.refresh();
+    }
+
+    @Override
+    public int count() {
+        return slots.count();
+    }
+
+    @Override
+    public long weight() {
+        return slots.weight();
+    }
+
+    /**
+     * @return the number of bytes allocated off-heap, including chunks on the free lists
+     */
+    public long offHeapBytes() {
+        return allocator.allocatedBytes();
+    }
+
+    @Override
+    public Iterable<Key> keys() {
+        return slots.keys();
+    }
+
+    @Override
+    public Iterable<Value> values() {
+        return () -> new MappingIterator<>(slots.values().iterator(), this::read);
+    }
+
+    @Override
+    public Stats stats() {
+        return slots.stats();
+    }
+
+    @Override
+    public void forEach(BiConsumer<Key, Value> consumer) {
+        slots.forEach((key, slot) -> {
+            Value value = read(slot);
+            if (value != null) {
+                consumer.accept(key, value);
+            }
+        });
+    }
+
+    /**
+     * @see SieveCache#setMaximumWeight(long)
+     */
+    public void setMaximumWeight(long maximumWeight) {
+        slots.setMaximumWeight(maximumWeight);
+    }
+
+    /**
+     * Invalidates all entries and frees the off-heap memory.
+     */
+    @Override
+    public void close() {
+        try {
+            slots.close();
+        } finally {
+            allocator.close();
+        }
+    }
+
+    private Slot write(Value value) {
+        Slot slot = allocator.allocate(serializer.serializedSize(value));
+        try {
+            serializer.serialize(value, allocator.data(slot));
+        } catch (RuntimeException e) {
+            allocator.free(slot);
+            throw e;
+        }
+        return slot;
+    }
+
+    /**
+     * @return the value or null if the slot was freed before or while reading
+     */
+    private Value read(Slot slot) {
+        byte[] bytes = allocator.read(slot);
+        return bytes == null ? null : serializer.deserialize(MemorySegment.ofArray(bytes));
+    }
+
+    /**
+     * Maps the slots to values, skipping slots freed while iterating. {@link Iterator#remove()} is delegated, so it
+     * can't be called once {@link #hasNext()} looked ahead.
+     */
+    private static class MappingIterator<Value> implements Iterator<Value> {
+        private final Iterator<Slot> slots;
+        private final Function<Slot, Value> reader;
+        private Value next;
+
+        private MappingIterator(Iterator<Slot> slots, Function<Slot, Value> reader) {
+            this.slots = slots;
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && slots.hasNext()) {
+                next = reader.apply(slots.next());
+            }
+            return next != null;
+        }
+
+        @Override
+        public Value next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Value value = next;
+            next = null;
+            return value;
+        }
+
+        @Override
+        public void remove() {
+            if (next != null) {
+                throw new IllegalStateException("hasNext() already moved past the last element");
+            }
+            slots.remove();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package dev.bischoff.michael.elastic.cache;
+
+/**
+ * What a writer does when it finds a cache with a hard capacity bound over that bound. See
+ * {@link CacheBuilder#setHardBound(OverflowPolicy, long)}.
+ */
+public enum OverflowPolicy {
+    /**
+     * The writer evicts entries itself until the cache is back within the bound.
+     */
+    CALLER_EVICTS,
+    /**
+     * The writer waits for background eviction to bring the cache back within the bound. If background eviction falls
+     * behind the writer evicts itself.
+     */
+    BLOCK,
+    /**
+     * The write is rejected with a {@link CacheFullException} and background eviction is scheduled.
+     */
+    FAIL_FAST
+}
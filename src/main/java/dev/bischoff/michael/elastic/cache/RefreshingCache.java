@@ -0,0 +1,357 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * Decorates a cache with refresh-ahead: entries older than the refresh age are reloaded in the background on the next
+ * read, while that read, and all others until the reload completes, get the current value without waiting.
+ * <p>
+ * Only one reload per key runs at a time. A failed reload, or one returning null, keeps the current value and is
+ * retried by a later read after an exponentially growing backoff. A write or invalidation of the key while a reload
+ * is in flight wins over the reloaded value.
+ * </p>
+ * With a stale grace period, entries are kept for that long after they expire after write. Reads in that period get
+ * the stale value while it is reloaded, stale-while-revalidate, rather than missing. Past the grace period the entry is
+ * gone and the next read has to load it.
+ * <p>
+ * The decorated cache holds the values stamped with their write time, see {@link CacheBuilder#setRefreshAfterWrite}.
+ * </p>
+ *
+ * @param <Key> type of keys used for lookup
+ * @param <Value> type of values this cache can hold.
+ */
+public class RefreshingCache<Key, Value> implements Cache<Key, Value> {
+
+    /**
+     * A value with the time it was loaded or written.
+     */
+    record Stamped<Value>(Value value, long writeTime) {}
+
+    /**
+     * Creates the decorated cache, given the removal listener, weigher and expire after write it must use.
+     */
+    @FunctionalInterface
+    interface StampedCacheFactory<Key, Value> {
+        Cache<Key, Stamped<Value>> create(
+            RemovalListener<Key, Stamped<Value>> removalListener,
+            ToLongBiFunction<Key, Stamped<Value>> weigher,
+            long expireAfterWriteNanos
+        );
+    }
+
+    /**
+     * Consecutive reload failures of a key and when the next attempt may be made.
+     */
+    private record Backoff(int failures, long nextAttemptNanos) {}
+
+    // the wait after the first failed reload, doubled for every further failure
+    private static final long INITIAL_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Cache<Key, Stamped<Value>> cache;
+    private final long refreshAfterWriteNanos;
+    // -1 if entries don't expire after write
+    private final long expireAfterWriteNanos;
+    private final long staleGraceNanos;
+    private final long maxBackoffNanos;
+    private final CacheLoader<Key, Value> reloader;
+    private final Executor executor;
+    private final Ticker ticker;
+    // keys being reloaded and the stamped value the reload replaces
+    private final ConcurrentMap<Key, Stamped<Value>> reloading = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Key, Backoff> backoffs = new ConcurrentHashMap<>();
+
+    /**
+     * @param refreshAfterWriteNanos the age after which an entry is reloaded on read, must be greater than 0
+     * @param expireAfterWriteNanos the age after which an entry expires, -1 if it doesn't
+     * @param staleGraceNanos how long an expired entry may still be served while it is reloaded, 0 for not at all
+     * @param reloader loads the new value
+     * @param executor runs the reloads
+     * @param ticker the source of time for the age of entries
+     * @param removalListener notified when an entry is removed, may be null
+     * @param weigher weighs the entries, may be null
+     * @param cacheFactory creates the decorated cache
+     */
+    RefreshingCache(
+        long refreshAfterWriteNanos,
+        long expireAfterWriteNanos,
+        long staleGraceNanos,
+        CacheLoader<Key, Value> reloader,
+        Executor executor,
+        Ticker ticker,
+        RemovalListener<Key, Value> removalListener,
+        ToLongBiFunction<Key, Value> weigher,
+        StampedCacheFactory<Key, Value> cacheFactory
+    ) {
+        if (refreshAfterWriteNanos <= 0) {
+            throw new IllegalArgumentException("refreshAfterWriteNanos <= 0");
+        }
+        if (staleGraceNanos < 0) {
+            throw new IllegalArgumentException("staleGraceNanos < 0");
+        }
+        if (staleGraceNanos > 0 && expireAfterWriteNanos <= 0) {
+            throw new IllegalArgumentException("a stale grace period requires entries to expire after write");
+        }
+        this.refreshAfterWriteNanos = refreshAfterWriteNanos;
+        this.expireAfterWriteNanos = expireAfterWriteNanos;
+        this.staleGraceNanos = staleGraceNanos;
+        this.maxBackoffNanos = Math.max(refreshAfterWriteNanos, INITIAL_BACKOFF_NANOS);
+        this.reloader = Objects.requireNonNull(reloader);
+        this.executor = Objects.requireNonNull(executor);
+        this.ticker = Objects.requireNonNull(ticker);
+        this.cache = cacheFactory.create(
+            notification -> {
+                if (notification.getRemovalReason() != RemovalNotification.RemovalReason.REPLACED) {
+                    backoffs.remove(notification.getKey());
+                }
+                if (removalListener != null) {
+                    removalListener.onRemoval(
+                        new RemovalNotification<>(notification.getKey(), notification.getValue().value(), notification.getRemovalReason())
+                    );
+                }
+            },
+            weigher == null ? null : (key, stamped) -> weigher.applyAsLong(key, stamped.value()),
+            expireAfterWriteNanos <= 0 ? -1 : expireAfterWriteNanos + staleGraceNanos
+        );
+    }
+
+    @Override
+    public Value get(Key key) {
+        Stamped<Value> stamped = cache.get(key);
+        return stamped == null ? null : serve(key, stamped, now());
+    }
+
+    @Override
+    public void put(Key key, Value value) {
+        reloading.remove(key);
+        backoffs.remove(key);
+        cache.put(key, new Stamped<>(value, now()));
+    }
+
+    @Override
+    public Value computeIfAbsent(Key key, CacheLoader<Key, Value> loader) throws ExecutionException {
+        Objects.requireNonNull(loader);
+        while (true) {
+            Stamped<Value> stamped = cache.computeIfAbsent(key, loadKey -> {
+                Value loaded = loader.load(loadKey);
+                return loaded == null ? null : new Stamped<>(loaded, now());
+            });
+            if (stamped == null) {
+                return null;
+            }
+            Value value = serve(key, stamped, now());
+            if (value != null) {
+                return value;
+            }
+            // past the grace period but not evicted yet, drop it and load
+            cache.invalidate(key, stamped);
+        }
+    }
+
+    @Override
+    public void invalidate(Key key) {
+        reloading.remove(key);
+        cache.invalidate(key);
+    }
+
+    @Override
+    public void invalidate(Key key, Value value) {
+        Stamped<Value> stamped = cache.get(key);
+        if (stamped != null && Objects.equals(stamped.value(), value)) {
+            reloading.remove(key, stamped);
+            cache.invalidate(key, stamped);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        reloading.clear();
+        cache.invalidateAll();
+    }
+
+    @Override
+    public Map<Key, Value> getAll(Iterable<? extends Key> keys) {
+        long now = now();
+        Map<Key, Value> result = new HashMap<>();
+        cache.getAll(keys).forEach((key, stamped) -> {
+            Value value = serve(key, stamped, now);
+            if (value != null) {
+                result.put(key, value);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void putAll(Map<? extends Key, ? extends Value> entries) {
+        long now = now();
+        Map<Key, Stamped<Value>> stamped = new HashMap<>();
+        entries.forEach((key, value) -> {
+            reloading.remove(key);
+            backoffs.remove(key);
+            stamped.put(key, new Stamped<>(value, now));
+        });
+        cache.putAll(stamped);
+    }
+
+    @Override
+    public void invalidateAll(Iterable<? extends Key> keys) {
+        for (Key key : keys) {
+            reloading.remove(key);
+        }
+        cache.invalidateAll(keys);
+    }
+
+    @Override
+    public void refresh() {
+        cache.refresh();
+    }
+
+    @Override
+    public int count() {
+        return cache.count();
+    }
+
+    @Override
+    public long weight() {
+        return cache.weight();
+    }
+
+    @Override
+    public Iterable<Key> keys() {
+        return cache.keys();
+    }
+
+    @Override
+    public Iterable<Value> values() {
+        return () -> new Iterator<>() {
+            private final Iterator<Stamped<Value>> iterator = cache.values().iterator();
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Value next() {
+                return iterator.next().value();
+            }
+
+            @Override
+            public void remove() {
+                iterator.remove();
+            }
+        };
+    }
+
+    @Override
+    public Stats stats() {
+        return cache.stats();
+    }
+
+    @Override
+    public void forEach(BiConsumer<Key, Value> consumer) {
+        cache.forEach((key, stamped) -> consumer.accept(key, stamped.value()));
+    }
+
+    @Override
+    public void close() {
+        reloading.clear();
+        cache.close();
+    }
+
+    /**
+     * @return the number of reloads in flight
+     */
+    public int reloading() {
+        return reloading.size();
+    }
+
+    /**
+     * Starts a reload if the entry is due, and returns its value unless it is past the grace period.
+     *
+     * @return the value to return to the reader or null if it can't be served anymore
+     */
+    private Value serve(Key key, Stamped<Value> stamped, long now) {
+        long age = now - stamped.writeTime();
+        if (age < refreshAfterWriteNanos) {
+            return stamped.value();
+        }
+        if (expireAfterWriteNanos > 0 && age > expireAfterWriteNanos + staleGraceNanos) {
+            return null;
+        }
+        scheduleReload(key, stamped, now);
+        return stamped.value();
+    }
+
+    private void scheduleReload(Key key, Stamped<Value> stamped, long now) {
+        Backoff backoff = backoffs.get(key);
+        if (backoff != null && now - backoff.nextAttemptNanos() < 0) {
+            return;
+        }
+        if (reloading.putIfAbsent(key, stamped) != null) {
+            return;
+        }
+        try {
+            executor.execute(() -> reload(key, stamped));
+        } catch (RejectedExecutionException e) {
+            // try again on a later read
+            reloading.remove(key, stamped);
+        }
+    }
+
+    private void reload(Key key, Stamped<Value> stamped) {
+        Value value = null;
+        CacheEvents.CacheLoad loadEvent = new CacheEvents.CacheLoad();
+        loadEvent.begin();
+        try {
+            value = reloader.load(key);
+            loadEvent.complete(this, key, value == null ? CacheEvents.NULL : CacheEvents.SUCCESS);
+        } catch (Exception e) {
+            // keep serving the current value, a later read retries after the backoff
+            loadEvent.complete(this, key, CacheEvents.FAILURE);
+        } finally {
+            if (value == null) {
+                long now = now();
+                backoffs.compute(key, (k, backoff) -> {
+                    int failures = backoff == null ? 1 : backoff.failures() + 1;
+                    long wait = INITIAL_BACKOFF_NANOS << Math.min(failures - 1, 30);
+                    return new Backoff(failures, now + Math.min(wait, maxBackoffNanos));
+                });
+                reloading.remove(key, stamped);
+            }
+        }
+        if (value == null) {
+            return;
+        }
+        backoffs.remove(key);
+        Stamped<Value> reloaded = new Stamped<>(value, now());
+        // only put while still registered, so a write or invalidation that came in meanwhile wins
+        reloading.computeIfPresent(key, (k, current) -> {
+            if (current != stamped) {
+                return current;
+            }
+            cache.put(k, reloaded);
+            return null;
+        });
+    }
+
+    /**
+     * The relative time used to track refreshes.
+     *
+     * @return the current relative time
+     */
+    protected long now() {
+        return ticker.read();
+    }
+}
@@ -13,7 +13,12 @@ public class RemovalNotification<K, V> {
     public enum RemovalReason {
         REPLACED,
         INVALIDATED,
-        EVICTED
+        // removed to stay within the maximum weight
+        EVICTED,
+        // removed because its lifetime ended
+        EXPIRED,
+        // never added, admission kept the entries the cache had
+        REJECTED
     }
 
     private final K key;
@@ -0,0 +1,830 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToLongBiFunction;
+
+import static dev.bischoff.michael.elastic.cache.RemovalNotification.RemovalReason.*;
+
+/**
+ * Implementation of <a href="https://dl.acm.org/doi/10.1145/3600006.3613147">S3-FIFO</a>
+ * <p>
+ * S3-FIFO keeps new entries in a small FIFO queue, about a tenth of the cache, so entries that are only requested once
+ * leave quickly without pushing popular entries out. Entries hit while in the small queue move on to the main queue,
+ * the others are evicted and their keys remembered in a ghost queue; a key coming back while still remembered goes to
+ * the main queue straight away. The main queue evicts like CLOCK, every hit buys an entry another pass, up to three.
+ * </p>
+ * Like {@link SieveCache} hits only write a counter on the entry, both queues are {@link IntrusiveFifo}s that writers
+ * append to without locking and eviction happens in the background on a {@link MaintenanceScheduler}. maxSize and
+ * maxWeight are soft limits, replaced and invalidated entries stay linked until eviction or compaction reaches them.
+ * {@link #close()} the cache once it is no longer used.
+ * <p>
+ * The ghost queue only remembers hashes of keys, in a table indexed by the hash, so it is approximate: a colliding key
+ * can push another out early, or, rarely, be mistaken for it.
+ * </p>
+ *
+ * @param <Key> type of keys used for lookup
+ * @param <Value> type of values this cache can hold.
+ */
+public class S3FifoCache<Key, Value> implements Cache<Key, Value> {
+
+    private static class EntryHolder<Key, Value> extends IntrusiveFifo.Node<EntryHolder<Key, Value>> {
+        public final Key key;
+        public final Value value;
+        public final long writeTime;
+        public volatile long accessTime;
+        // the hits since the entry was queued or last passed by the hand, accessed through FREQUENCY
+        public volatile int frequency;
+        // accessed through WEIGHT, REMOVED once the weight has been subtracted from the total
+        public volatile long weight;
+        // the weight the entry adds to the small queue while linked in it
+        public final long queuedWeight;
+        // true if the entry is queued in the main queue rather than the small one, set before it is queued
+        public volatile boolean main;
+
+        EntryHolder(Key key, Value value, long writeTime, long weight) {
+            this.key = key;
+            this.value = value;
+            this.writeTime = this.accessTime = writeTime;
+            this.weight = this.queuedWeight = weight;
+        }
+    }
+
+    private final ConcurrentMap<Key, EntryHolder<Key, Value>> cache;
+    private final IntrusiveFifo<EntryHolder<Key, Value>> small = new IntrusiveFifo<>(new EntryHolder<>(null, null, 0, 0));
+    private final IntrusiveFifo<EntryHolder<Key, Value>> main = new IntrusiveFifo<>(new EntryHolder<>(null, null, 0, 0));
+    private final LongAdder size = new LongAdder();
+    private final LongAdder weight = new LongAdder();
+    // the entries linked in the small queue and their weight, including dead ones
+    private final LongAdder smallSize = new LongAdder();
+    private final LongAdder smallWeight = new LongAdder();
+    private final Ghost ghost = new Ghost();
+    private StatsCounter stats = StatsCounter.concurrent();
+    // guards moving the hand, moving entries between the queues and unlinking
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final Long maxCapacity;
+    private volatile Long maxWeight;
+    private final ToLongBiFunction<Key, Value> weigher;
+    private final RemovalListener<Key, Value> removalListener;
+
+    // queues eviction and compaction on the scheduler, at most once at a time
+    @SuppressWarnings("this-escape") // only called back once a write schedules a drain, after construction
+    private final Drainer drainer = new Drainer(this::drain, this::needsDrain);
+    // the number of steps a writer evicts inline when over budget before handing off to the scheduler, 0 to disable
+    private int callerRunsSteps = 0;
+    // the position of the hand in the main queue, null when it has to start over at the tail, guarded by evictionLock
+    private EntryHolder<Key, Value> hand;
+    // entries removed from the map but still linked in a queue, pinning their value until unlinked
+    private final LongAdder deadEntries = new LongAdder();
+    // the positions of compaction in both queues, guarded by evictionLock
+    private EntryHolder<Key, Value> smallCompactionCursor;
+    private EntryHolder<Key, Value> mainCompactionCursor;
+    // compaction starts once there are more dead entries than this ratio of live entries
+    private double compactionRatio = SieveCache.DEFAULT_COMPACTION_RATIO;
+    // positive if entries have an expiration
+    private final long expireAfterAccessNanos;
+    // true if entries can expire after access
+    private final boolean entriesExpireAfterAccess;
+    // positive if entries have an expiration after write
+    private final long expireAfterWriteNanos;
+    // true if entries can expire after initial insertion
+    private final boolean entriesExpireAfterWrite;
+    // the source of time for expiration
+    private Ticker ticker = Ticker.systemTicker();
+
+    // the share of maxSize and maxWeight for the small queue, above it eviction takes from the small queue
+    public static final double SMALL_QUEUE_RATIO = 0.1;
+    // hits are counted up to this, the number of extra passes of the hand an entry in the main queue gets
+    private static final int MAX_FREQUENCY = 3;
+
+    // marks the weight of an entry that has left the map and was subtracted from the total
+    private static final long REMOVED = -1;
+
+    private static final VarHandle FREQUENCY;
+    private static final VarHandle WEIGHT;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            FREQUENCY = lookup.findVarHandle(EntryHolder.class, "frequency", int.class);
+            WEIGHT = lookup.findVarHandle(EntryHolder.class, "weight", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public S3FifoCache() {
+        this(null, null, null, null, -1, -1);
+    }
+
+    public S3FifoCache(Long maxCapacity, Long maxWeight, RemovalListener<Key, Value> removalListener, ToLongBiFunction<Key, Value> weigher) {
+        this(maxCapacity, maxWeight, removalListener, weigher, -1, -1);
+    }
+
+    public S3FifoCache(Long maxCapacity, Long maxWeight, RemovalListener<Key, Value> removalListener, ToLongBiFunction<Key, Value> weigher, long expireAfterAccessNanos, long expireAfterWriteNanos) {
+        this(maxCapacity, maxWeight, removalListener, weigher, expireAfterAccessNanos, expireAfterWriteNanos, 16);
+    }
+
+    S3FifoCache(Long maxCapacity, Long maxWeight, RemovalListener<Key, Value> removalListener, ToLongBiFunction<Key, Value> weigher, long expireAfterAccessNanos, long expireAfterWriteNanos, int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity < 0");
+        }
+        this.cache = new ConcurrentHashMap<>(initialCapacity);
+        this.maxCapacity = maxCapacity;
+        this.maxWeight = maxWeight;
+        this.removalListener = removalListener != null ? removalListener : (notification) -> {};
+        this.weigher = weigher != null ? weigher : (key, value) -> 1;
+        this.expireAfterAccessNanos = expireAfterAccessNanos;
+        this.entriesExpireAfterAccess = expireAfterAccessNanos > 0;
+        this.expireAfterWriteNanos = expireAfterWriteNanos;
+        this.entriesExpireAfterWrite = expireAfterWriteNanos > 0;
+    }
+
+    /**
+     * Lets writers that find the cache over budget evict themselves, up to the given number of steps, before handing
+     * the remainder off to the scheduler.
+     *
+     * @param callerRunsSteps the maximum number of steps a writer takes, 0 disables caller runs (the default)
+     */
+    void setCallerRunsSteps(int callerRunsSteps) {
+        if (callerRunsSteps < 0) {
+            throw new IllegalArgumentException("callerRunsSteps < 0");
+        }
+        this.callerRunsSteps = callerRunsSteps;
+    }
+
+    /**
+     * @param compactionRatio the ratio of dead to live entries that triggers compaction, see
+     *                        {@link SieveCache#DEFAULT_COMPACTION_RATIO}
+     */
+    void setCompactionRatio(double compactionRatio) {
+        if (!(compactionRatio >= 0)) {
+            throw new IllegalArgumentException("compactionRatio < 0");
+        }
+        this.compactionRatio = compactionRatio;
+    }
+
+    /**
+     * @param stats records the statistics of this cache, {@link StatsCounter#disabled()} to not record any
+     */
+    void setStatsCounter(StatsCounter stats) {
+        this.stats = Objects.requireNonNull(stats);
+    }
+
+    /**
+     * @param ticker the source of time for expiration, instead of {@link System#nanoTime()}
+     */
+    void setTicker(Ticker ticker) {
+        this.ticker = Objects.requireNonNull(ticker);
+    }
+
+    /**
+     * @param scheduler the scheduler running this cache's eviction in the background, instead of the shared one
+     */
+    void setMaintenanceScheduler(MaintenanceScheduler scheduler) {
+        drainer.setScheduler(scheduler);
+    }
+
+    @Override
+    public Value get(Key key) {
+        EntryHolder<Key, Value> entry = cache.get(key);
+        if (entry != null) {
+            markHit(entry);
+            return entry.value;
+        }
+        stats.recordMisses(1);
+        return null;
+    }
+
+    @Override
+    public void put(Key key, Value value) {
+        long entryWeight = weigh(key, value);
+        EntryHolder<Key, Value> newEntry = new EntryHolder<>(key, value, now(), entryWeight);
+        EntryHolder<Key, Value> oldValue = cache.put(key, newEntry);
+        size.increment();
+        // not read from the entry, a concurrent invalidation might have marked it removed already
+        weight.add(entryWeight);
+        // a replaced entry that made it to the main queue stays there
+        enqueue(newEntry, oldValue != null && oldValue.main);
+        if (oldValue != null) {
+            size.decrement();
+            releaseWeight(oldValue);
+            removeFromQueue(oldValue, REPLACED);
+        }
+        afterWrite();
+    }
+
+    @Override
+    public Value computeIfAbsent(Key key, CacheLoader<Key, Value> loader) throws ExecutionException {
+        Objects.requireNonNull(loader);
+        var created = new AtomicBoolean(false);
+        try {
+            EntryHolder<Key, Value> result = cache.computeIfAbsent(key, (loadKey) -> {
+                stats.recordMisses(1);
+                CacheEvents.CacheLoad loadEvent = new CacheEvents.CacheLoad();
+                loadEvent.begin();
+                long loadStart = System.nanoTime();
+                try {
+                    var loadedValue = loader.load(loadKey);
+                    if (loadedValue == null) {
+                        stats.recordLoadFailure(System.nanoTime() - loadStart);
+                        loadEvent.complete(this, loadKey, CacheEvents.NULL);
+                        return null;
+                    }
+                    stats.recordLoadSuccess(System.nanoTime() - loadStart);
+                    loadEvent.complete(this, loadKey, CacheEvents.SUCCESS);
+                    created.set(true);
+                    var entry = new EntryHolder<>(loadKey, loadedValue, now(), weigh(loadKey, loadedValue));
+                    size.increment();
+                    weight.add(entry.weight);
+                    return entry;
+                } catch (Exception e) {
+                    stats.recordLoadFailure(System.nanoTime() - loadStart);
+                    loadEvent.complete(this, loadKey, CacheEvents.FAILURE);
+                    throw new CacheLoaderException(e);
+                }
+            });
+            if (result == null) {
+                return null;
+            }
+            if (created.get()) {
+                enqueue(result, false);
+                afterWrite();
+            } else {
+                markHit(result);
+            }
+            return result.value;
+        } catch (CacheLoaderException e) {
+            throw new ExecutionException(e.getCause());
+        }
+    }
+
+    @Override
+    public void invalidate(Key key) {
+        EntryHolder<Key, Value> removedEntry = cache.remove(key);
+        if (removedEntry != null) {
+            size.decrement();
+            releaseWeight(removedEntry);
+            removeFromQueue(removedEntry, INVALIDATED);
+            afterRemoval();
+        }
+    }
+
+    @Override
+    public void invalidate(Key key, Value value) {
+        while (true) {
+            EntryHolder<Key, Value> entry = cache.get(key);
+            if (entry == null || !Objects.equals(entry.value, value)) {
+                return;
+            }
+            if (cache.remove(key, entry)) {
+                size.decrement();
+                releaseWeight(entry);
+                removeFromQueue(entry, INVALIDATED);
+                afterRemoval();
+                return;
+            }
+            // replaced, possibly by its promoted copy holding the same value
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        CacheEvents.InvalidateAll event = new CacheEvents.InvalidateAll();
+        event.begin();
+        long invalidated = 0;
+        evictionLock.lock();
+        try {
+            invalidated += removeAll(small, INVALIDATED, Long.MIN_VALUE);
+            invalidated += removeAll(main, INVALIDATED, Long.MIN_VALUE);
+        } finally {
+            evictionLock.unlock();
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.cacheType = getClass();
+            event.count = invalidated;
+            event.commit();
+        }
+    }
+
+    /**
+     * Removes the expired entries. The small queue is in write order, with only expire after write this stops at the
+     * first entry there that isn't expired. The main queue is in the order entries were promoted, so it is walked
+     * entirely.
+     */
+    @Override
+    public void refresh() {
+        if (!entriesExpireAfterAccess && !entriesExpireAfterWrite) {
+            return;
+        }
+        long now = now();
+        evictionLock.lock();
+        try {
+            removeAll(small, EXPIRED, now);
+            removeAll(main, EXPIRED, now);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public int count() {
+        return size.intValue();
+    }
+
+    @Override
+    public long weight() {
+        return weight.sum();
+    }
+
+    @Override
+    public Iterable<Key> keys() {
+        return () -> new EntryIterator<>(entry -> entry.key);
+    }
+
+    @Override
+    public Iterable<Value> values() {
+        return () -> new EntryIterator<>(entry -> entry.value);
+    }
+
+    @Override
+    public Stats stats() {
+        return stats.snapshot();
+    }
+
+    @Override
+    public void forEach(BiConsumer<Key, Value> consumer) {
+        cache.forEach((key, entry) -> consumer.accept(key, entry.value));
+    }
+
+    /**
+     * Changes the maximum weight at runtime. When shrinking, the excess is evicted in batches on the maintenance
+     * scheduler.
+     *
+     * @param maximumWeight the new maximum weight
+     */
+    public void setMaximumWeight(long maximumWeight) {
+        if (maximumWeight < 0) {
+            throw new IllegalArgumentException("maximumWeight < 0");
+        }
+        this.maxWeight = maximumWeight;
+        if (!hasSpace()) {
+            drainer.schedule();
+        }
+    }
+
+    /**
+     * Stops background maintenance for this cache and invalidates all entries. The scheduler itself isn't closed as it
+     * might be shared with other caches.
+     */
+    @Override
+    public void close() {
+        drainer.close();
+        invalidateAll();
+    }
+
+    /**
+     * Links a new entry into the main queue if its key was evicted from the small queue recently, or it replaces an
+     * entry in the main queue, into the small queue otherwise.
+     */
+    private void enqueue(EntryHolder<Key, Value> entry, boolean toMain) {
+        if (toMain || ghost.contains(hash(entry.key), count())) {
+            entry.main = true;
+            main.offer(entry);
+        } else {
+            smallSize.increment();
+            smallWeight.add(entry.queuedWeight);
+            small.offer(entry);
+        }
+    }
+
+    /**
+     * Called after every write, makes sure the cache gets back within budget without each write paying for a task.
+     */
+    private void afterWrite() {
+        if (hasSpace()) {
+            afterRemoval();
+            return;
+        }
+        if (callerRunsSteps > 0 && evictionLock.tryLock()) {
+            try {
+                evict(callerRunsSteps);
+            } finally {
+                evictionLock.unlock();
+            }
+            if (hasSpace()) {
+                return;
+            }
+        }
+        drainer.schedule();
+    }
+
+    /**
+     * Called after entries left the map without being unlinked, makes sure dead entries don't pile up.
+     */
+    private void afterRemoval() {
+        if (needsCompaction()) {
+            drainer.schedule();
+        }
+    }
+
+    /**
+     * Runs a batch of eviction and compaction on behalf of the {@link Drainer}.
+     *
+     * @return true if the cache is still over budget or needs compaction and the batch can make more progress
+     */
+    private boolean drain(int maxSteps) {
+        evictionLock.lock();
+        try {
+            boolean evictable = evict(maxSteps);
+            boolean compactable = compact(maxSteps);
+            return (evictable && !hasSpace()) || (compactable && needsCompaction());
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private boolean needsDrain() {
+        return !hasSpace() || needsCompaction();
+    }
+
+    /**
+     * Evicts until the cache is within budget or the maximum number of steps was taken, from the small queue while it
+     * is over its share and from the main queue otherwise. Must hold the evictionLock.
+     *
+     * @param maxSteps the maximum number of entries looked at
+     * @return false if eviction stopped because there was nothing left it could evict
+     */
+    private boolean evict(int maxSteps) {
+        assert evictionLock.isHeldByCurrentThread();
+        // a full pass of the hand takes a hit off every entry, so after MAX_FREQUENCY + 1 passes without evicting the
+        // main queue only holds entries we can't evict, e.g. when everything has been invalidated concurrently
+        int wrapsWithoutEviction = 0;
+        for (int step = 0; step < maxSteps && !hasSpace(); step++) {
+            long now = now();
+            if (smallOverShare() && evictFromSmall(now)) {
+                wrapsWithoutEviction = 0;
+                continue;
+            }
+            EntryHolder<Key, Value> entry = hand;
+            if (entry == null) {
+                entry = main.oldest();
+                if (entry == null || ++wrapsWithoutEviction > MAX_FREQUENCY + 1) {
+                    // the main queue can't give anything, the small queue might even if it is within its share
+                    if (evictFromSmall(now)) {
+                        wrapsWithoutEviction = 0;
+                        continue;
+                    }
+                    return false;
+                }
+            }
+            hand = main.newer(entry);
+            boolean expired = isExpired(entry, now);
+            int frequency = entry.frequency;
+            if (!expired && frequency > 0 && entry.weight != REMOVED) {
+                FREQUENCY.setRelease(entry, frequency - 1);
+            } else if (evictEntry(entry, expired)) {
+                wrapsWithoutEviction = 0;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes the oldest entry out of the small queue, moving it to the main queue if it was hit and evicting it
+     * otherwise. Must hold the evictionLock.
+     *
+     * @return false if the small queue had nothing to take
+     */
+    private boolean evictFromSmall(long now) {
+        EntryHolder<Key, Value> entry = small.oldest();
+        if (entry == null || (entry.weight == REMOVED && small.newer(entry) == null)) {
+            // the newest entry can't be unlinked, a dead one has to wait for a newer entry to arrive
+            return false;
+        }
+        boolean expired = isExpired(entry, now);
+        if (!expired && entry.frequency > 0 && entry.weight != REMOVED) {
+            if (small.newer(entry) == null) {
+                return false; // the newest entry, it can't move yet
+            }
+            promote(entry);
+            return true;
+        }
+        if (evictEntry(entry, expired) && !expired) {
+            ghost.add(hash(entry.key), count());
+        }
+        return true;
+    }
+
+    /**
+     * Moves the entry from the small queue to the main queue. A node can't safely be linked into another queue, offers
+     * racing with the unlink might still link new nodes to it, so the entry is replaced by a copy in the main queue.
+     * Must hold the evictionLock.
+     *
+     * @param entry an entry of the small queue that isn't the newest
+     */
+    private void promote(EntryHolder<Key, Value> entry) {
+        EntryHolder<Key, Value> promoted = new EntryHolder<>(entry.key, entry.value, entry.writeTime, entry.weight);
+        promoted.accessTime = entry.accessTime;
+        promoted.main = true;
+        if (cache.replace(entry.key, entry, promoted)) {
+            // the entry left the map but not the cache, its weight went to the copy
+            WEIGHT.set(entry, REMOVED);
+            unlink(entry, false);
+            main.offer(promoted);
+        } else {
+            unlink(entry, true);
+        }
+    }
+
+    /**
+     * Removes the entry from the map and unlinks it, or only unlinks it if it was removed already.
+     *
+     * @return true if the entry was evicted by this call
+     */
+    private boolean evictEntry(EntryHolder<Key, Value> entry, boolean expired) {
+        if (cache.remove(entry.key, entry)) {
+            size.decrement();
+            long entryWeight = releaseWeight(entry);
+            if (expired) {
+                stats.recordRemoval(EXPIRED);
+            } else {
+                stats.recordEviction(entryWeight);
+            }
+            removalListener.onRemoval(new RemovalNotification<>(entry.key, entry.value, expired ? EXPIRED : EVICTED));
+            unlink(entry, false);
+            return true;
+        }
+        unlink(entry, true);
+        return false;
+    }
+
+    /**
+     * Removes the entries of the queue that expired by the given time, all of them for {@link Long#MIN_VALUE}. Must
+     * hold the evictionLock.
+     *
+     * @return the number of entries removed
+     */
+    private long removeAll(IntrusiveFifo<EntryHolder<Key, Value>> queue, RemovalNotification.RemovalReason reason, long now) {
+        assert evictionLock.isHeldByCurrentThread();
+        boolean all = now == Long.MIN_VALUE;
+        long removed = 0;
+        EntryHolder<Key, Value> entry = queue.oldest();
+        while (entry != null) {
+            EntryHolder<Key, Value> next = queue.newer(entry);
+            if (all || isExpired(entry, now)) {
+                if (cache.remove(entry.key, entry)) {
+                    size.decrement();
+                    releaseWeight(entry);
+                    stats.recordRemoval(reason);
+                    removalListener.onRemoval(new RemovalNotification<>(entry.key, entry.value, reason));
+                    removed++;
+                    unlink(entry, false);
+                } else {
+                    unlink(entry, true);
+                }
+            } else if (queue == small && !entriesExpireAfterAccess) {
+                // the small queue is in write order, an entry written out of order by a concurrent write is picked up
+                // by a later refresh
+                break;
+            }
+            entry = next;
+        }
+        return removed;
+    }
+
+    /**
+     * Moves the compaction cursors, unlinking entries that are no longer in the map, until the number of dead entries
+     * is back under the ratio or the maximum number of steps was taken. Must hold the evictionLock.
+     *
+     * @param maxSteps the maximum number of entries the cursors move over
+     * @return false if the cursors went over both queues without getting under the ratio
+     */
+    private boolean compact(int maxSteps) {
+        assert evictionLock.isHeldByCurrentThread();
+        int step = 0;
+        boolean smallWrapped = false;
+        for (; step < maxSteps && needsCompaction(); step++) {
+            EntryHolder<Key, Value> entry = smallCompactionCursor;
+            if (entry == null) {
+                entry = small.oldest();
+                if (entry == null || smallWrapped) {
+                    break;
+                }
+                smallWrapped = true;
+            }
+            smallCompactionCursor = small.newer(entry);
+            if (entry.weight == REMOVED) {
+                unlink(entry, true);
+            }
+        }
+        boolean mainWrapped = false;
+        for (; step < maxSteps && needsCompaction(); step++) {
+            EntryHolder<Key, Value> entry = mainCompactionCursor;
+            if (entry == null) {
+                entry = main.oldest();
+                if (entry == null || mainWrapped) {
+                    return false;
+                }
+                mainWrapped = true;
+            }
+            mainCompactionCursor = main.newer(entry);
+            if (entry.weight == REMOVED) {
+                unlink(entry, true);
+            }
+        }
+        return true;
+    }
+
+    private boolean needsCompaction() {
+        return Drainer.needsCompaction(deadEntries.sum(), compactionRatio, count());
+    }
+
+    /**
+     * Unlinks the entry from the queue it is in, moving the hand and compaction cursors along if they point to the
+     * entry. Must hold the evictionLock.
+     *
+     * @param entry the entry to unlink
+     * @param dead true if the entry was removed from the map by someone else and counted in deadEntries
+     * @return false if the entry is the newest of its queue and stays linked for now
+     */
+    private boolean unlink(EntryHolder<Key, Value> entry, boolean dead) {
+        assert evictionLock.isHeldByCurrentThread();
+        IntrusiveFifo<EntryHolder<Key, Value>> queue = entry.main ? main : small;
+        if (queue.unlink(entry)) {
+            if (hand == entry) {
+                hand = main.newer(entry);
+            }
+            if (smallCompactionCursor == entry) {
+                smallCompactionCursor = small.newer(entry);
+            }
+            if (mainCompactionCursor == entry) {
+                mainCompactionCursor = main.newer(entry);
+            }
+            if (!entry.main) {
+                smallSize.decrement();
+                smallWeight.add(-entry.queuedWeight);
+            }
+            if (dead) {
+                deadEntries.decrement();
+            }
+            return true;
+        }
+        if (!dead) {
+            // the newest entry has to stay, from now on it is a dead entry like any other
+            deadEntries.increment();
+        }
+        return false;
+    }
+
+    private void removeFromQueue(EntryHolder<Key, Value> entry, RemovalNotification.RemovalReason reason) {
+        assert reason != EVICTED : "evictions are recorded with their weight";
+        // left linked, eviction or compaction unlinks it later
+        stats.recordRemoval(reason);
+        deadEntries.increment();
+        removalListener.onRemoval(new RemovalNotification<>(entry.key, entry.value, reason));
+    }
+
+    private void markHit(EntryHolder<Key, Value> entry) {
+        stats.recordHits(1);
+        int frequency = entry.frequency;
+        if (frequency < MAX_FREQUENCY) {
+            // racy, a lost hit doesn't matter
+            FREQUENCY.setRelease(entry, frequency + 1);
+        }
+        if (entriesExpireAfterAccess) {
+            entry.accessTime = now();
+        }
+    }
+
+    private boolean smallOverShare() {
+        return (maxCapacity != null && smallSize.sum() > maxCapacity * SMALL_QUEUE_RATIO)
+            || (maxWeight != null && smallWeight.sum() > maxWeight * SMALL_QUEUE_RATIO);
+    }
+
+    private boolean hasSpace() {
+        return (maxCapacity == null || count() < maxCapacity) && (maxWeight == null || weight() < maxWeight);
+    }
+
+    private boolean isExpired(EntryHolder<Key, Value> entry, long now) {
+        return (entriesExpireAfterAccess && now - entry.accessTime > expireAfterAccessNanos)
+            || (entriesExpireAfterWrite && now - entry.writeTime > expireAfterWriteNanos);
+    }
+
+    private long weigh(Key key, Value value) {
+        long weight = weigher.applyAsLong(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("weigher returned a negative weight [" + weight + "] for key [" + key + "]");
+        }
+        return weight;
+    }
+
+    /**
+     * Subtracts the weight of an entry that left the map from the total, exactly once.
+     *
+     * @return the weight that was subtracted
+     */
+    private long releaseWeight(EntryHolder<Key, Value> entry) {
+        long entryWeight = (long) WEIGHT.getAndSet(entry, REMOVED);
+        if (entryWeight == REMOVED) {
+            return 0;
+        }
+        weight.add(-entryWeight);
+        return entryWeight;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) * 0x9E3779B9;
+    }
+
+    /**
+     * The relative time used to track time-based evictions.
+     *
+     * @return the current relative time
+     */
+    protected long now() {
+        // reading the ticker takes non-negligible time, so we only use it if we need it
+        return entriesExpireAfterAccess || entriesExpireAfterWrite ? ticker.read() : 0;
+    }
+
+    /**
+     * Remembers the hashes of the last keys evicted from the small queue, as many as there are entries in the cache. A
+     * table indexed by the hash holds the hash and a sequence number, a hash is remembered while its slot still holds it
+     * and fewer keys than the window were added since. Adding is guarded by the evictionLock, lookups aren't.
+     */
+    private static final class Ghost {
+        private static final int MIN_SLOTS = 1024;
+
+        private volatile AtomicLongArray table = new AtomicLongArray(MIN_SLOTS);
+        private volatile int sequence = 1;
+
+        void add(int hash, int window) {
+            AtomicLongArray table = this.table;
+            if (window > table.length() / 2 && table.length() < 1 << 30) {
+                // sized for twice the window so keys rarely push each other out, forgets what was remembered so far
+                table = new AtomicLongArray(Integer.highestOneBit(Math.min(window, 1 << 28)) << 2);
+                this.table = table;
+            }
+            int next = sequence++;
+            table.set(hash & (table.length() - 1), ((long) hash << 32) | (next & 0xFFFFFFFFL));
+        }
+
+        boolean contains(int hash, int window) {
+            AtomicLongArray table = this.table;
+            long slot = table.get(hash & (table.length() - 1));
+            return (int) (slot >>> 32) == hash && slot != 0 && Integer.compareUnsigned(sequence - (int) slot, window) < 0;
+        }
+    }
+
+    private static class CacheLoaderException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public CacheLoaderException(Throwable throwable) {
+            super(throwable);
+        }
+    }
+
+    private final class EntryIterator<Type> implements Iterator<Type> {
+        private final Iterator<EntryHolder<Key, Value>> iterator = cache.values().iterator();
+        private final Function<EntryHolder<Key, Value>, Type> mapper;
+        private EntryHolder<Key, Value> last;
+
+        EntryIterator(Function<EntryHolder<Key, Value>, Type> mapper) {
+            this.mapper = mapper;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Type next() {
+            last = iterator.next();
+            return mapper.apply(last);
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            // by value, the entry might have been promoted since
+            invalidate(last.key, last.value);
+            last = null;
+        }
+    }
+}
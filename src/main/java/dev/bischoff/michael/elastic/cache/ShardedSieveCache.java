@@ -0,0 +1,278 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * A {@link SieveCache} split into a number of independent shards.
+ * <p>
+ * Every key is hashed to exactly one shard and each shard is a complete {@link SieveCache} with its own map, FIFO
+ * queue, hand and budget. Because the shards don't share any state, inserts into different shards don't contend on a
+ * single queue and eviction runs in parallel across shards. The price is that eviction decisions are made per shard,
+ * so the cache as a whole only approximates SIEVE and the budget is enforced per shard rather than globally.
+ * </p>
+ * {@link #count()}, {@link #weight()} and {@link #stats()} are aggregated over all shards and are, like the numbers of
+ * a single shard, best-effort.
+ *
+ * @param <Key> type of keys used for lookup
+ * @param <Value> type of values this cache can hold.
+ */
+public class ShardedSieveCache<Key, Value> implements Cache<Key, Value> {
+
+    private final SieveCache<Key, Value>[] shards;
+
+    /**
+     * @param shardCount the number of shards, must be positive
+     * @param shardFactory creates the shard for the given index, each invocation must return a new instance
+     */
+    @SuppressWarnings("unchecked")
+    public ShardedSieveCache(int shardCount, IntFunction<SieveCache<Key, Value>> shardFactory) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount <= 0");
+        }
+        Objects.requireNonNull(shardFactory);
+        this.shards = (SieveCache<Key, Value>[]) new SieveCache<?, ?>[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = Objects.requireNonNull(shardFactory.apply(i));
+        }
+    }
+
+    /**
+     * @return the number of shards
+     */
+    public int shardCount() {
+        return shards.length;
+    }
+
+    @Override
+    public Value get(Key key) {
+        return shardFor(key).get(key);
+    }
+
+    @Override
+    public void put(Key key, Value value) {
+        shardFor(key).put(key, value);
+    }
+
+    @Override
+    public Value computeIfAbsent(Key key, CacheLoader<Key, Value> loader) throws ExecutionException {
+        return shardFor(key).computeIfAbsent(key, loader);
+    }
+
+    /**
+     * Groups the keys by shard and looks them up in one batch per shard.
+     */
+    @Override
+    public Map<Key, Value> getAll(Iterable<? extends Key> keys) {
+        List<List<Key>> keysByShard = groupByShard(keys);
+        Map<Key, Value> result = new HashMap<>();
+        for (int i = 0; i < shards.length; i++) {
+            if (!keysByShard.get(i).isEmpty()) {
+                result.putAll(shards[i].getAll(keysByShard.get(i)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Groups the entries by shard and puts them in one batch per shard.
+     */
+    @Override
+    public void putAll(Map<? extends Key, ? extends Value> entries) {
+        List<Map<Key, Value>> entriesByShard = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            entriesByShard.add(new HashMap<>());
+        }
+        entries.forEach((key, value) -> entriesByShard.get(shardIndex(key)).put(key, value));
+        for (int i = 0; i < shards.length; i++) {
+            if (!entriesByShard.get(i).isEmpty()) {
+                shards[i].putAll(entriesByShard.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void invalidate(Key key) {
+        shardFor(key).invalidate(key);
+    }
+
+    @Override
+    public void invalidate(Key key, Value value) {
+        shardFor(key).invalidate(key, value);
+    }
+
+    /**
+     * Groups the keys by shard and invalidates them in one batch per shard.
+     */
+    @Override
+    public void invalidateAll(Iterable<? extends Key> keys) {
+        List<List<Key>> keysByShard = groupByShard(keys);
+        for (int i = 0; i < shards.length; i++) {
+            if (!keysByShard.get(i).isEmpty()) {
+                shards[i].invalidateAll(keysByShard.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        for (SieveCache<Key, Value> shard : shards) {
+            shard.invalidateAll();
+        }
+    }
+
+    @Override
+    public void refresh() {
+        for (SieveCache<Key, Value> shard : shards) {
+            shard.refresh();
+        }
+    }
+
+    @Override
+    public int count() {
+        int count = 0;
+        for (SieveCache<Key, Value> shard : shards) {
+            count += shard.count();
+        }
+        return count;
+    }
+
+    @Override
+    public long weight() {
+        long weight = 0;
+        for (SieveCache<Key, Value> shard : shards) {
+            weight += shard.weight();
+        }
+        return weight;
+    }
+
+    @Override
+    public Iterable<Key> keys() {
+        return () -> new ShardIterator<>(Cache::keys);
+    }
+
+    @Override
+    public Iterable<Value> values() {
+        return () -> new ShardIterator<>(Cache::values);
+    }
+
+    @Override
+    public Stats stats() {
+        Stats stats = new Stats(0, 0, 0);
+        for (SieveCache<Key, Value> shard : shards) {
+            stats = stats.plus(shard.stats());
+        }
+        return stats;
+    }
+
+    @Override
+    public void forEach(BiConsumer<Key, Value> consumer) {
+        for (SieveCache<Key, Value> shard : shards) {
+            shard.forEach(consumer);
+        }
+    }
+
+    /**
+     * @see SieveCache#reweigh(Object)
+     */
+    public void reweigh(Key key) {
+        shardFor(key).reweigh(key);
+    }
+
+    /**
+     * Changes the maximum weight at runtime, dividing it evenly over the shards.
+     *
+     * @see SieveCache#setMaximumWeight(long)
+     */
+    public void setMaximumWeight(long maximumWeight) {
+        if (maximumWeight < 0) {
+            throw new IllegalArgumentException("maximumWeight < 0");
+        }
+        for (SieveCache<Key, Value> shard : shards) {
+            shard.setMaximumWeight(Math.ceilDiv(maximumWeight, shards.length));
+        }
+    }
+
+    @Override
+    public void close() {
+        for (SieveCache<Key, Value> shard : shards) {
+            shard.close();
+        }
+    }
+
+    private SieveCache<Key, Value> shardFor(Key key) {
+        return shards[shardIndex(key)];
+    }
+
+    private int shardIndex(Key key) {
+        // SieveCache's ConcurrentHashMap picks its bucket using the low bits of the hash, so the shard is selected
+        // using the high bits of a mixed hash to avoid every shard only ever using a fraction of its buckets.
+        int hash = key.hashCode() * 0x9E3779B9;
+        return (int) (((hash & 0xFFFFFFFFL) * shards.length) >>> 32);
+    }
+
+    private List<List<Key>> groupByShard(Iterable<? extends Key> keys) {
+        List<List<Key>> keysByShard = new ArrayList<>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            keysByShard.add(new ArrayList<>());
+        }
+        for (Key key : keys) {
+            keysByShard.get(shardIndex(key)).add(key);
+        }
+        return keysByShard;
+    }
+
+    /**
+     * Walks the shards one after the other, {@link Iterator#remove()} is delegated to the shard the last element came
+     * from.
+     */
+    private class ShardIterator<Type> implements Iterator<Type> {
+        private final Function<SieveCache<Key, Value>, Iterable<Type>> iterableOf;
+        private int nextShard = 0;
+        private Iterator<Type> current = Collections.emptyIterator();
+        private Iterator<Type> last;
+
+        private ShardIterator(Function<SieveCache<Key, Value>, Iterable<Type>> iterableOf) {
+            this.iterableOf = iterableOf;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (nextShard == shards.length) {
+                    return false;
+                }
+                current = iterableOf.apply(shards[nextShard++]).iterator();
+            }
+            return true;
+        }
+
+        @Override
+        public Type next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = current;
+            return current.next();
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            last.remove();
+            last = null;
+        }
+    }
+}
@@ -1,9 +1,15 @@
 package dev.bischoff.michael.elastic.cache;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.ref.WeakReference;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.ToLongBiFunction;
@@ -16,42 +22,123 @@ import static dev.bischoff.michael.elastic.cache.RemovalNotification.RemovalReas
  * SIEVE, a simple, efficient, fast, and scalable cache eviction algorithm for web caches that leverages “lazy
  * promotion” and “quick demotion”. The high efficiency in SIEVE comes from gradually sifting out the unpopular objects.
  * </p>
- * maxSize and maxWeight are soft limits and we might surge over.
+ * maxSize and maxWeight are soft limits and we might surge over, unless a hard bound is configured. Writers then
+ * make sure the cache doesn't go over the limit by more than the configured overflow, see {@link OverflowPolicy}.
+ * <p>
+ * Eviction happens in the background on a {@link MaintenanceScheduler}, by default the {@link MaintenanceScheduler#shared()
+ * shared} one. {@link #close()} the cache once it is no longer used.
+ * </p>
+ * Every entry counts its hits up to a small maximum, one by default, which makes this plain SIEVE. With more
+ * {@link #setVisitedBits(int) bits} the hand takes one hit off an entry each time it passes and only evicts it once
+ * none are left, so entries hit often survive more passes than entries hit once.
+ * <p>
+ * With {@link #setCost recompute costs} the counters turn into the credits of a clock approximation of GreedyDual-Size:
+ * a hit restores an entry's credit, which is higher the more it costs to recompute per unit of weight, so the hand
+ * evicts large, cheap entries first.
+ * </p>
+ * <p>
+ * With {@link EvictionPolicy#FIFO} the hand ignores hits and evicts every entry it reaches, the cache then evicts in
+ * insertion order.
+ * Optionally new keys have to get past TinyLFU admission once the cache is full, see {@link #enableAdmission()}.
  *
  * @param <Key> type of keys used for lookup
  * @param <Value> type of values this cache can hold.
  */
 public class SieveCache<Key, Value> implements Cache<Key, Value> {
 
-    private static class EntryHolder<Key, Value> {
+    private static class EntryHolder<Key, Value> extends IntrusiveFifo.Node<EntryHolder<Key, Value>>
+        implements TimerWheel.Timed<EntryHolder<Key, Value>> {
         public final Key key;
         public final Value value;
-        public final AtomicBoolean visited = new AtomicBoolean(false);
+        // hits the hand still has to take off before evicting the entry, accessed through VISITS
+        public volatile byte visits;
+        // what a hit raises visits to when costs are tracked, set before the entry is published
+        public byte credit;
         public final long writeTime;
         public volatile long accessTime;
+        // accessed through WEIGHT, REMOVED once the weight has been subtracted from the total
+        public volatile long weight;
+        // when the entry expires if an Expiry is configured, only ever moved out without holding the timerLock
+        public volatile long expiresAt;
+        // links in the timer wheel, guarded by the timerLock
+        private EntryHolder<Key, Value> previousInWheel;
+        private EntryHolder<Key, Value> nextInWheel;
 
-        EntryHolder(Key key, Value value, long writeTime) {
+        EntryHolder(Key key, Value value, long writeTime, long weight) {
             this.key = key;
             this.value = value;
             this.writeTime = this.accessTime = writeTime;
+            this.weight = weight;
+        }
+
+        @Override
+        public long expiresAt() {
+            return expiresAt;
+        }
+
+        @Override
+        public EntryHolder<Key, Value> previousInWheel() {
+            return previousInWheel;
+        }
+
+        @Override
+        public void setPreviousInWheel(EntryHolder<Key, Value> previous) {
+            this.previousInWheel = previous;
+        }
+
+        @Override
+        public EntryHolder<Key, Value> nextInWheel() {
+            return nextInWheel;
+        }
+
+        @Override
+        public void setNextInWheel(EntryHolder<Key, Value> next) {
+            this.nextInWheel = next;
         }
     }
 
-    private final ConcurrentMap<Key, EntryHolder<Key, Value>> cache = new ConcurrentHashMap<>();
-    private final ConcurrentLinkedDeque<EntryHolder<Key, Value>> queue = new ConcurrentLinkedDeque<>();
+    // only replaced before first use, see setInitialCapacity(int)
+    private ConcurrentMap<Key, EntryHolder<Key, Value>> cache = new ConcurrentHashMap<>();
+    private final IntrusiveFifo<EntryHolder<Key, Value>> queue = new IntrusiveFifo<>(new EntryHolder<>(null, null, 0, 0));
     private final LongAdder size = new LongAdder();
     private final LongAdder weight = new LongAdder();
-    private final LongAdder hits = new LongAdder();
-    private final LongAdder misses = new LongAdder();
-    private final LongAdder evictions = new LongAdder();
-    private final AtomicBoolean sieving = new AtomicBoolean();
+    private StatsCounter stats = StatsCounter.concurrent();
+    // guards moving the hand and unlinking from the queue
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // signalled after a drain batch, writers blocked on the hard bound wait for it
+    private final Condition drained = evictionLock.newCondition();
     private final Long maxCapacity;
-    private final Long maxWeight;
+    private volatile Long maxWeight;
     private final ToLongBiFunction<Key, Value> weigher;
     private final RemovalListener<Key, Value> removalListener;
 
-    private final ExecutorService siever = Executors.newSingleThreadExecutor();
-    private volatile Iterator<EntryHolder<Key, Value>> sieve;
+    // queues eviction and compaction on the scheduler, at most once at a time
+    @SuppressWarnings("this-escape") // only called back once a write schedules a drain, after construction
+    private final Drainer drainer = new Drainer(this::drain, this::needsDrain);
+    // true if the hand evicts regardless of hits, see EvictionPolicy#FIFO
+    private boolean fifo;
+    // the number of hits an entry counts up to
+    private byte maxVisits = 1;
+    // true if hits restore an entry's credit rather than count
+    private boolean costAware;
+    // the recompute cost of an entry in nanoseconds, null to use the measured load time, or the mean for puts
+    private ToLongBiFunction<Key, Value> cost;
+    // moving average of the cost per unit of weight that credits are relative to, updated racily
+    private volatile double meanCostPerWeight;
+    // the number of hand movements a writer does inline when over budget before handing off to the scheduler, 0 to disable
+    private int callerRunsSteps = 0;
+    // the position of the hand, null when it has to start over at the tail, guarded by evictionLock
+    private EntryHolder<Key, Value> hand;
+    // entries removed from the map but still linked in the queue, pinning their value until unlinked
+    private final LongAdder deadEntries = new LongAdder();
+    // the position of compaction, which unlinks dead entries ahead of the hand, guarded by evictionLock
+    private EntryHolder<Key, Value> compactionCursor;
+    // compaction starts once there are more dead entries than this ratio of live entries
+    private double compactionRatio = DEFAULT_COMPACTION_RATIO;
+    // null if maxCapacity and maxWeight are soft limits
+    private OverflowPolicy overflowPolicy;
+    // how far over maxCapacity and maxWeight the cache may go with a hard bound
+    private long maxOverflow;
     // positive if entries have an expiration
     private final long expireAfterAccessNanos;
     // true if entries can expire after access
@@ -60,6 +147,44 @@ public class SieveCache<Key, Value> implements Cache<Key, Value> {
     private final long expireAfterWriteNanos;
     // true if entries can expire after initial insertion
     private final boolean entriesExpireAfterWrite;
+    // computes the lifetime of every entry, null if entries don't have their own
+    private Expiry<Key, Value> expiry;
+    // the entries by expiration time if there is an expiry, guarded by the timerLock
+    private TimerWheel<EntryHolder<Key, Value>> timerWheel;
+    // guards the timer wheel, taken after the evictionLock if both are needed
+    private final ReentrantLock timerLock = new ReentrantLock();
+    // when the timer wheel was last advanced
+    private volatile long timerWheelAdvancedAt;
+    // the source of time for expiration
+    private Ticker ticker = Ticker.systemTicker();
+    // calls refresh() periodically, null if expired entries are only cleaned up by explicit refreshes
+    private Sweeper sweeper;
+    // the recent access frequencies admission compares, null if every new entry is admitted
+    private FrequencySketch admission;
+
+    public static final double DEFAULT_COMPACTION_RATIO = 0.5;
+    // how long a writer blocked on the hard bound waits for background eviction before evicting itself
+    private static final long BLOCKED_WRITER_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    // how far admission looks past the hand for the entry it will actually evict
+    private static final int MAX_VICTIM_STEPS = 16;
+
+    // marks the weight of an entry that has left the map and was subtracted from the total
+    private static final long REMOVED = -1;
+    // lifetimes are capped so adding them to the current time can't overflow, ~146 years
+    private static final long MAX_LIFETIME_NANOS = Long.MAX_VALUE >> 1;
+
+    private static final VarHandle VISITS;
+    private static final VarHandle WEIGHT;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            VISITS = lookup.findVarHandle(EntryHolder.class, "visits", byte.class);
+            WEIGHT = lookup.findVarHandle(EntryHolder.class, "weight", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
 
     public SieveCache() {
         this(null,null,null,null, -1, -1);
@@ -80,60 +205,286 @@ public class SieveCache<Key, Value> implements Cache<Key, Value> {
         this.entriesExpireAfterWrite = expireAfterWriteNanos > 0;
     }
 
+    /**
+     * Lets writers that find the cache over budget move the hand themselves, up to the given number of steps, before
+     * handing the remainder off to the scheduler. This trades some write latency for less overshoot and fewer hand-offs.
+     *
+     * @param callerRunsSteps the maximum number of steps a writer takes, 0 disables caller runs (the default)
+     */
+    void setCallerRunsSteps(int callerRunsSteps) {
+        if (callerRunsSteps < 0) {
+            throw new IllegalArgumentException("callerRunsSteps < 0");
+        }
+        this.callerRunsSteps = callerRunsSteps;
+    }
+
+    /**
+     * @param policy {@link EvictionPolicy#SIEVE}, the default, or {@link EvictionPolicy#FIFO} to evict entries in
+     *               insertion order, ignoring hits
+     */
+    void setEvictionPolicy(EvictionPolicy policy) {
+        Objects.requireNonNull(policy);
+        if (policy == EvictionPolicy.LRU) {
+            throw new IllegalArgumentException("policy [" + policy + "] isn't supported");
+        }
+        this.fifo = policy == EvictionPolicy.FIFO;
+    }
+
+    /**
+     * Sets the width of the saturating hit counter of every entry, turning SIEVE into k-bit SIEVE. With one bit, the
+     * default, the hand gives a hit entry one second chance, with k bits up to 2^k - 1.
+     *
+     * @param visitedBits the bits per counter, between 1 and 7
+     */
+    void setVisitedBits(int visitedBits) {
+        if (visitedBits < 1) {
+            throw new IllegalArgumentException("visitedBits < 1");
+        }
+        if (visitedBits > 7) {
+            throw new IllegalArgumentException("visitedBits > 7");
+        }
+        this.maxVisits = (byte) ((1 << visitedBits) - 1);
+    }
+
+    /**
+     * Makes eviction cost-aware, a clock approximation of
+     * <a href="https://www.usenix.org/legacy/publications/library/proceedings/usits97/full_papers/cao/cao.pdf">
+     * GreedyDual-Size</a>. Every entry gets a credit from its recompute cost per unit of weight, on a log scale around
+     * the mean of recent entries and capped by the {@link #setVisitedBits(int) visited bits}. Hits restore the credit,
+     * the hand takes one off per pass, so entries that are cheap to rebuild for their size are evicted first. Entries
+     * well above the mean start out with part of their credit, rather than none.
+     *
+     * @param cost the recompute cost of an entry in nanoseconds, or null to use how long the {@link CacheLoader} took,
+     *             entries that are put rather than loaded then count as average
+     */
+    void setCost(ToLongBiFunction<Key, Value> cost) {
+        this.cost = cost;
+        this.costAware = true;
+    }
+
+    /**
+     * Sizes the map for the given number of entries up front, so it doesn't have to grow while the cache fills.
+     *
+     * @param initialCapacity the number of entries to size for
+     */
+    void setInitialCapacity(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity < 0");
+        }
+        if (!cache.isEmpty()) {
+            throw new IllegalStateException("the initial capacity must be set before the cache is used");
+        }
+        this.cache = new ConcurrentHashMap<>(initialCapacity);
+    }
+
+    /**
+     * Puts new keys through TinyLFU admission while the cache is full. Every lookup and write is recorded in a
+     * {@link FrequencySketch}, a new key is only admitted if it was accessed more often recently than the entry at the
+     * hand, the next candidate for eviction. Otherwise the write is dropped and reported with
+     * {@link RemovalNotification.RemovalReason#REJECTED}, so keys that are only accessed once, e.g. by a scan, don't
+     * push out the popular ones.
+     *
+     * @throws IllegalStateException if the cache has no maxCapacity to size the sketch by
+     */
+    void enableAdmission() {
+        if (maxCapacity == null) {
+            throw new IllegalStateException("admission requires a maximum size");
+        }
+        this.admission = new FrequencySketch(maxCapacity);
+    }
+
+    /**
+     * Replaced and invalidated entries stay in the queue until the hand reaches them. Once there are more of these dead
+     * entries than the given ratio of live entries, they are unlinked by background compaction instead.
+     *
+     * @param compactionRatio the ratio of dead to live entries that triggers compaction
+     */
+    void setCompactionRatio(double compactionRatio) {
+        if (!(compactionRatio >= 0)) {
+            throw new IllegalArgumentException("compactionRatio < 0");
+        }
+        this.compactionRatio = compactionRatio;
+    }
+
+    /**
+     * Turns maxCapacity and maxWeight into a hard bound. A writer finding the cache more than maxOverflow over either
+     * limit acts according to the policy.
+     *
+     * @param overflowPolicy what writers do when the cache is over the bound
+     * @param maxOverflow how far over the limits the cache may go before writers act, in entries or weight
+     */
+    void setHardBound(OverflowPolicy overflowPolicy, long maxOverflow) {
+        Objects.requireNonNull(overflowPolicy);
+        if (maxOverflow < 0) {
+            throw new IllegalArgumentException("maxOverflow < 0");
+        }
+        this.overflowPolicy = overflowPolicy;
+        this.maxOverflow = maxOverflow;
+    }
+
+    /**
+     * @param stats records the statistics of this cache, {@link StatsCounter#disabled()} to not record any
+     */
+    void setStatsCounter(StatsCounter stats) {
+        this.stats = Objects.requireNonNull(stats);
+    }
+
+    /**
+     * @param ticker the source of time for expiration, instead of {@link System#nanoTime()}
+     */
+    void setTicker(Ticker ticker) {
+        Objects.requireNonNull(ticker);
+        if (timerWheel != null) {
+            throw new IllegalStateException("the ticker must be set before the expiry");
+        }
+        this.ticker = ticker;
+    }
+
+    /**
+     * Gives every entry its own lifetime. Expired entries are found through a {@link TimerWheel} as time passes rather
+     * than by scanning the queue, time is checked on reads and writes and the wheel is advanced in the background.
+     *
+     * @param expiry computes the lifetime of the entries
+     */
+    void setExpiry(Expiry<Key, Value> expiry) {
+        this.expiry = Objects.requireNonNull(expiry);
+        long now = now();
+        this.timerWheel = new TimerWheel<>(now, () -> new EntryHolder<>(null, null, 0, 0));
+        this.timerWheelAdvancedAt = now;
+    }
+
+    /**
+     * Sweeps expired entries in the background at the given interval, so they don't have to be cleaned up by calling
+     * {@link #refresh()}. Sweeps run on a single daemon thread shared by all caches and stop once the cache is closed.
+     *
+     * @param intervalNanos the time between two sweeps, must be greater than 0
+     */
+    void setExpirationSweepInterval(long intervalNanos) {
+        if (intervalNanos <= 0) {
+            throw new IllegalArgumentException("intervalNanos <= 0");
+        }
+        if (sweeper != null) {
+            sweeper.cancel();
+        }
+        sweeper = new Sweeper(this);
+        sweeper.start(intervalNanos);
+    }
+
+    /**
+     * @param scheduler the scheduler running this cache's eviction in the background, instead of the shared one
+     */
+    void setMaintenanceScheduler(MaintenanceScheduler scheduler) {
+        drainer.setScheduler(scheduler);
+    }
+
     @Override
     public Value get(Key key) {
+        recordAccess(key);
         EntryHolder<Key, Value> entry = cache.get(key);
-        if(entry != null) {
+        if(entry != null && (expiry == null || afterRead(entry))) {
             markHit(entry);
             return entry.value;
         }
-        misses.increment();
+        stats.recordMisses(1);
         return null;
     }
 
     @Override
     public void put(Key key, Value value) {
-        EntryHolder<Key, Value> newHead = new EntryHolder<>(key, value, now());
-        EntryHolder<Key, Value> oldValue = cache.put(key, newHead);
+        rejectIfOverBound();
+        long entryWeight = weigh(key, value);
+        if (!admits(key, entryWeight)) {
+            reject(key, value);
+            return;
+        }
+        long now = now();
+        EntryHolder<Key, Value> newHead = new EntryHolder<>(key, value, now, entryWeight);
+        if (costAware) {
+            assignCredit(newHead, -1);
+        }
+        EntryHolder<Key, Value> oldValue = insert(newHead, now);
         size.increment();
-        weight.add(weigher.applyAsLong(key, value));
+        weight.add(newHead.weight);
         appendToHead(newHead);
+        if (expiry != null) {
+            afterWrite(newHead, now);
+        }
         if(oldValue!=null) {
             size.decrement();
-            weight.add(-weigher.applyAsLong(oldValue.key, oldValue.value));
+            releaseWeight(oldValue);
             removeFromQueue(oldValue, REPLACED);
         }
-        siever.submit(this::sieveUntilSpace);
+        afterWrite();
     }
 
     @Override
     public Value computeIfAbsent(Key key, CacheLoader<Key, Value> loader) throws ExecutionException {
         Objects.requireNonNull(loader);
+        recordAccess(key);
         var created = new AtomicBoolean(false);
+        // the loaded value if admission dropped it
+        var rejected = admission == null ? null : new AtomicReference<Value>();
         try {
             EntryHolder<Key, Value> result = cache.computeIfAbsent(key, (loadKey) -> {
+                rejectIfOverBound();
+                stats.recordMisses(1);
+                CacheEvents.CacheLoad loadEvent = new CacheEvents.CacheLoad();
+                loadEvent.begin();
+                long loadStart = System.nanoTime();
                 try {
                     var loadedValue = loader.load(loadKey);
                     if(loadedValue == null) {
+                        stats.recordLoadFailure(System.nanoTime() - loadStart);
+                        loadEvent.complete(this, loadKey, CacheEvents.NULL);
+                        return null;
+                    }
+                    long loadNanos = System.nanoTime() - loadStart;
+                    stats.recordLoadSuccess(loadNanos);
+                    loadEvent.complete(this, loadKey, CacheEvents.SUCCESS);
+                    long entryWeight = weigh(loadKey, loadedValue);
+                    if (rejected != null && !admitsAbsent(loadKey, entryWeight)) {
+                        // notified once the map no longer holds the bin lock
+                        rejected.set(loadedValue);
                         return null;
                     }
                     created.set(true);
-                    var entry = new EntryHolder<>(loadKey, loadedValue, now());
+                    long now = now();
+                    var entry = new EntryHolder<>(loadKey, loadedValue, now, entryWeight);
+                    if (costAware) {
+                        assignCredit(entry, loadNanos);
+                    }
+                    if (expiry != null) {
+                        entry.expiresAt = expiresAt(now, expiry.expireAfterCreate(loadKey, loadedValue, now));
+                    }
                     size.increment();
-                    weight.add(weigher.applyAsLong(entry.key, entry.value));
+                    weight.add(entry.weight);
                     return entry;
                 } catch (Exception e) {
+                    stats.recordLoadFailure(System.nanoTime() - loadStart);
+                    loadEvent.complete(this, loadKey, CacheEvents.FAILURE);
                     throw new CacheLoaderException(e);
                 }
             });
             if(created.get()) {
                 appendToHead(result);
-                siever.submit(this::sieveUntilSpace);
+                if (expiry != null) {
+                    afterWrite(result, result.writeTime);
+                }
+                afterWrite();
                 assert result != null;
                 return result.value;
             } else {
                 if(result == null) {
-                    return null;
+                    if (rejected == null || rejected.get() == null) {
+                        return null;
+                    }
+                    reject(key, rejected.get());
+                    return rejected.get();
+                }
+                if (expiry != null && !afterRead(result)) {
+                    // expired but not removed yet, remove it and load again
+                    expire(result);
+                    return computeIfAbsent(key, loader);
                 }
                 markHit(result);
                 return result.value;
@@ -143,13 +494,79 @@ public class SieveCache<Key, Value> implements Cache<Key, Value> {
         }
     }
 
+    /**
+     * Looks up all keys, counting the hits and misses once for the whole batch.
+     */
+    @Override
+    public Map<Key, Value> getAll(Iterable<? extends Key> keys) {
+        Map<Key, Value> result = new HashMap<>();
+        long hitCount = 0;
+        long missCount = 0;
+        for (Key key : keys) {
+            recordAccess(key);
+            EntryHolder<Key, Value> entry = cache.get(key);
+            if (entry != null && (expiry == null || afterRead(entry))) {
+                hitCount++;
+                markVisited(entry);
+                result.put(key, entry.value);
+            } else {
+                missCount++;
+            }
+        }
+        stats.recordHits(hitCount);
+        stats.recordMisses(missCount);
+        return result;
+    }
+
+    /**
+     * Puts all entries, accounting their count and weight once for the whole batch and only then checking whether the
+     * cache has to evict, so a batch triggers at most one drain.
+     */
+    @Override
+    public void putAll(Map<? extends Key, ? extends Value> entries) {
+        rejectIfOverBound();
+        long now = now();
+        long addedCount = 0;
+        long addedWeight = 0;
+        List<EntryHolder<Key, Value>> replaced = new ArrayList<>();
+        for (Map.Entry<? extends Key, ? extends Value> entry : entries.entrySet()) {
+            long entryWeight = weigh(entry.getKey(), entry.getValue());
+            if (!admits(entry.getKey(), entryWeight)) {
+                reject(entry.getKey(), entry.getValue());
+                continue;
+            }
+            EntryHolder<Key, Value> newHead = new EntryHolder<>(entry.getKey(), entry.getValue(), now, entryWeight);
+            if (costAware) {
+                assignCredit(newHead, -1);
+            }
+            EntryHolder<Key, Value> oldValue = insert(newHead, now);
+            appendToHead(newHead);
+            if (expiry != null) {
+                afterWrite(newHead, now);
+            }
+            addedWeight += entryWeight;
+            if (oldValue == null) {
+                addedCount++;
+            } else {
+                replaced.add(oldValue);
+            }
+        }
+        size.add(addedCount);
+        weight.add(addedWeight - takeWeights(replaced));
+        for (EntryHolder<Key, Value> oldValue : replaced) {
+            removeFromQueue(oldValue, REPLACED);
+        }
+        afterWrite();
+    }
+
     @Override
     public void invalidate(Key key) {
         EntryHolder<Key, Value> removedEntry = cache.remove(key);
         if(removedEntry != null) {
             size.decrement();
-            weight.add(-weigher.applyAsLong(removedEntry.key, removedEntry.value));
+            releaseWeight(removedEntry);
             removeFromQueue(removedEntry, INVALIDATED);
+            afterRemoval();
         }
     }
 
@@ -159,43 +576,109 @@ public class SieveCache<Key, Value> implements Cache<Key, Value> {
         if(entry != null && Objects.equals(entry.value, value)) {
             if(cache.remove(key, entry)) {
                 size.decrement();
-                weight.add(-weigher.applyAsLong(entry.key, entry.value));
+                releaseWeight(entry);
                 removeFromQueue(entry, INVALIDATED);
+                afterRemoval();
             } else {
                 // Value already replaced before we could remove it. Invalidating is no longer necessary
             }
         }
     }
 
+    /**
+     * Invalidates all keys, accounting the removed count and weight once for the whole batch.
+     */
     @Override
-    public void invalidateAll() {
-        while(true) {
-            EntryHolder<Key, Value> entry = queue.pollLast();
-            if(entry == null) {
-                break;
-            }
-            if(cache.remove(entry.key, entry)) {
-                size.decrement();
-                weight.add(-weigher.applyAsLong(entry.key, entry.value));
-                removalListener.onRemoval(new RemovalNotification<>(entry.key, entry.value, INVALIDATED));
+    public void invalidateAll(Iterable<? extends Key> keys) {
+        List<EntryHolder<Key, Value>> removed = new ArrayList<>();
+        for (Key key : keys) {
+            EntryHolder<Key, Value> removedEntry = cache.remove(key);
+            if (removedEntry != null) {
+                removed.add(removedEntry);
             }
         }
+        if (removed.isEmpty()) {
+            return;
+        }
+        size.add(-removed.size());
+        weight.add(-takeWeights(removed));
+        for (EntryHolder<Key, Value> removedEntry : removed) {
+            removeFromQueue(removedEntry, INVALIDATED);
+        }
+        afterRemoval();
     }
 
     @Override
-    public void refresh() {
-        var iterator = queue.descendingIterator();
-        while(iterator.hasNext()) {
-            var entry = iterator.next();
-            if(isExpired(entry, now())) {
+    public void invalidateAll() {
+        CacheEvents.InvalidateAll event = new CacheEvents.InvalidateAll();
+        event.begin();
+        long invalidated = 0;
+        evictionLock.lock();
+        try {
+            EntryHolder<Key, Value> entry = queue.oldest();
+            while(entry != null) {
+                EntryHolder<Key, Value> next = queue.newer(entry);
                 if(cache.remove(entry.key, entry)) {
                     size.decrement();
-                    weight.add(-weigher.applyAsLong(entry.key, entry.value));
-                    removalListener.onRemoval(new RemovalNotification<>(entry.key, entry.value, EVICTED));
-                    evictions.increment();
+                    releaseWeight(entry);
+                    stats.recordRemoval(INVALIDATED);
+                    removalListener.onRemoval(new RemovalNotification<>(entry.key, entry.value, INVALIDATED));
+                    invalidated++;
+                    unlink(entry, false);
+                } else {
+                    unlink(entry, true);
+                }
+                entry = next;
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.cacheType = getClass();
+            event.count = invalidated;
+            event.commit();
+        }
+    }
+
+    /**
+     * Removes the expired entries. Entries are queued in the order they were written and never reordered, so with only
+     * expire after write this walks from the oldest entry and stops at the first one that isn't expired, only touching
+     * the expired entries. Expire after access still needs to look at every entry.
+     */
+    @Override
+    public void refresh() {
+        if (timerWheel != null) {
+            advanceTimerWheel(now());
+        }
+        if (!entriesExpireAfterAccess && !entriesExpireAfterWrite) {
+            return; // the timer wheel already took care of per-entry expiration
+        }
+        long now = now();
+        evictionLock.lock();
+        try {
+            EntryHolder<Key, Value> entry = queue.oldest();
+            while(entry != null) {
+                EntryHolder<Key, Value> next = queue.newer(entry);
+                if(isExpired(entry, now)) {
+                    if(cache.remove(entry.key, entry)) {
+                        size.decrement();
+                        releaseWeight(entry);
+                        stats.recordRemoval(EXPIRED);
+                        removalListener.onRemoval(new RemovalNotification<>(entry.key, entry.value, EXPIRED));
+                        unlink(entry, false);
+                    } else {
+                        unlink(entry, true);
+                    }
+                } else if (!entriesExpireAfterAccess) {
+                    // all newer entries were written later, an entry written out of order by a concurrent write is
+                    // picked up by a later refresh
+                    break;
                 }
-                iterator.remove();
+                entry = next;
             }
+        } finally {
+            evictionLock.unlock();
         }
     }
 
@@ -231,7 +714,7 @@ public class SieveCache<Key, Value> implements Cache<Key, Value> {
 
     @Override
     public Stats stats() {
-        return new Stats(hits.sum(),misses.sum(),evictions.sum());
+        return stats.snapshot();
     }
 
     @Override
@@ -239,36 +722,283 @@ public class SieveCache<Key, Value> implements Cache<Key, Value> {
         cache.forEach((key, entry) -> consumer.accept(key, entry.value));
     }
 
-    private void sieveUntilSpace() {
-        if(hasSpace()) {
+    /**
+     * Weighs the entry for the key again, for values whose size changed since they were put. The weight of an entry is
+     * otherwise only computed once, when it is added. If the entry grew the cache might have to evict.
+     *
+     * @param key the key of the entry to weigh again
+     */
+    public void reweigh(Key key) {
+        EntryHolder<Key, Value> entry = cache.get(key);
+        if (entry == null) {
             return;
         }
-        if (!sieving.compareAndSet(false, true)) {
-            // Another thread is already sieving; avoid contention.
+        long newWeight = weigh(entry.key, entry.value);
+        while (true) {
+            long oldWeight = entry.weight;
+            if (oldWeight == REMOVED) {
+                return; // removed concurrently, nothing to account for anymore
+            }
+            if (WEIGHT.compareAndSet(entry, oldWeight, newWeight)) {
+                weight.add(newWeight - oldWeight);
+                break;
+            }
+        }
+        afterWrite();
+    }
+
+    /**
+     * Changes the maximum weight at runtime. When shrinking, the excess is evicted in batches on the maintenance
+     * scheduler, the same way as any other eviction, rather than all at once.
+     *
+     * @param maximumWeight the new maximum weight
+     */
+    public void setMaximumWeight(long maximumWeight) {
+        if (maximumWeight < 0) {
+            throw new IllegalArgumentException("maximumWeight < 0");
+        }
+        this.maxWeight = maximumWeight;
+        if (!hasSpace()) {
+            drainer.schedule();
+        }
+    }
+
+    /**
+     * Stops background maintenance for this cache and invalidates all entries. The scheduler itself isn't closed as it
+     * might be shared with other caches.
+     */
+    @Override
+    public void close() {
+        drainer.close();
+        if (sweeper != null) {
+            sweeper.cancel();
+        }
+        invalidateAll();
+    }
+
+    /**
+     * Called after every write, makes sure the cache gets back within budget without each write paying for a task.
+     */
+    private void afterWrite() {
+        if(hasSpace()) {
+            afterRemoval();
             return;
         }
-        try {
-            while (!hasSpace()) {
-                if (sieve == null || !sieve.hasNext()) {
-                    if(queue.isEmpty()) {
-                        return; // protect against queue.clear() etc.
+        if (callerRunsSteps > 0 && evictionLock.tryLock()) {
+            try {
+                sieve(callerRunsSteps);
+            } finally {
+                evictionLock.unlock();
+            }
+            if(hasSpace()) {
+                return;
+            }
+        }
+        drainer.schedule();
+        if (overflowPolicy != null && !withinBound()) {
+            enforceBound();
+        }
+    }
+
+    private boolean withinBound() {
+        return (maxCapacity==null || count()<=maxCapacity+maxOverflow) && (maxWeight==null || weight()<=maxWeight+maxOverflow);
+    }
+
+    /**
+     * Rejects a write with {@link OverflowPolicy#FAIL_FAST} if the cache is over the bound.
+     */
+    private void rejectIfOverBound() {
+        if (overflowPolicy == OverflowPolicy.FAIL_FAST && !withinBound()) {
+            drainer.schedule();
+            throw new CacheFullException("cache is over its hard bound [count=" + count() + ", weight=" + weight() + "]");
+        }
+    }
+
+    /**
+     * Keeps a writer from returning until the cache is back within the bound, called with the drain already scheduled.
+     */
+    private void enforceBound() {
+        switch (overflowPolicy) {
+            case CALLER_EVICTS -> {
+                evictionLock.lock();
+                try {
+                    while (!withinBound() && sieve(MaintenanceScheduler.DEFAULT_BATCH_STEPS)) {
+                        // keep going
                     }
-                    sieve = queue.descendingIterator();
+                } finally {
+                    evictionLock.unlock();
                 }
-                EntryHolder<Key, Value> entry = sieve.next();
-                if(isExpired(entry, now()) || !entry.visited.getAndSet(false)) {
-                    if(cache.remove(entry.key, entry)) {
-                        size.decrement();
-                        weight.add(-weigher.applyAsLong(entry.key, entry.value));
-                        removalListener.onRemoval(new RemovalNotification<>(entry.key, entry.value, EVICTED));
-                        evictions.increment();
+            }
+            case BLOCK -> {
+                evictionLock.lock();
+                try {
+                    while (!withinBound()) {
+                        drainer.schedule();
+                        boolean signalled;
+                        try {
+                            signalled = drained.awaitNanos(BLOCKED_WRITER_WAIT_NANOS) > 0;
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        // background eviction can't keep up, e.g. the scheduler is busy with other caches
+                        if (!signalled && !withinBound() && !sieve(MaintenanceScheduler.DEFAULT_BATCH_STEPS)) {
+                            return; // nothing left to evict
+                        }
                     }
-                    sieve.remove();
+                } finally {
+                    evictionLock.unlock();
                 }
             }
+            case FAIL_FAST -> {
+                // rejected up front
+            }
+        }
+    }
+
+    /**
+     * Called after entries left the map without being unlinked, makes sure dead entries don't pile up.
+     */
+    private void afterRemoval() {
+        if (needsCompaction()) {
+            drainer.schedule();
+        }
+    }
+
+    /**
+     * Runs a batch of expiration, eviction and compaction on behalf of the {@link Drainer}.
+     *
+     * @return true if the cache is still over budget or needs compaction and the batch can make more progress
+     */
+    private boolean drain(int maxSteps) {
+        if (timerWheel != null) {
+            advanceTimerWheel(now());
+        }
+        evictionLock.lock();
+        try {
+            boolean evictable = sieve(maxSteps);
+            if (overflowPolicy != null && evictionLock.hasWaiters(drained)) {
+                drained.signalAll();
+            }
+            boolean compactable = compact(maxSteps);
+            return (evictable && !hasSpace()) || (compactable && needsCompaction());
         } finally {
-            sieving.set(false);
+            evictionLock.unlock();
+        }
+    }
+
+    private boolean needsDrain() {
+        return !hasSpace() || needsCompaction();
+    }
+
+    /**
+     * Moves the hand, evicting entries, until the cache is within budget or the maximum number of steps was taken.
+     * Must hold the evictionLock.
+     *
+     * @param maxSteps the maximum number of entries the hand moves over
+     * @return false if the hand stopped because there was nothing left it could evict
+     */
+    private boolean sieve(int maxSteps) {
+        assert evictionLock.isHeldByCurrentThread();
+        CacheEvents.SieveSweep event = new CacheEvents.SieveSweep();
+        event.begin();
+        int scanned = 0;
+        int evicted = 0;
+        int secondChances = 0;
+        boolean evictable = true;
+        // every full pass takes a hit off every entry so after maxVisits passes one has to evict, if it doesn't the
+        // queue only holds entries we can't evict, e.g. when everything has been invalidated concurrently
+        int wrapsWithoutEviction = 0;
+        for (; scanned < maxSteps && !hasSpace(); scanned++) {
+            EntryHolder<Key, Value> entry = hand;
+            if (entry == null) {
+                entry = queue.oldest();
+                if(entry == null || ++wrapsWithoutEviction > maxVisits + 1) {
+                    evictable = false; // protect against invalidateAll() etc.
+                    break;
+                }
+            }
+            hand = queue.newer(entry);
+            boolean expired = isExpired(entry, now());
+            if(expired || fifo || !takeVisit(entry)) {
+                if(cache.remove(entry.key, entry)) {
+                    size.decrement();
+                    long entryWeight = releaseWeight(entry);
+                    if (expired) {
+                        stats.recordRemoval(EXPIRED);
+                    } else {
+                        stats.recordEviction(entryWeight);
+                    }
+                    removalListener.onRemoval(new RemovalNotification<>(entry.key, entry.value, expired ? EXPIRED : EVICTED));
+                    evicted++;
+                    wrapsWithoutEviction = 0;
+                    unlink(entry, false);
+                } else {
+                    unlink(entry, true);
+                }
+            } else {
+                secondChances++;
+            }
+        }
+        event.end();
+        // compaction-only and already within budget drains don't move the hand, they'd only flood the recording
+        if (scanned > 0 && event.shouldCommit()) {
+            event.cacheType = getClass();
+            event.scanned = scanned;
+            event.evicted = evicted;
+            event.secondChances = secondChances;
+            event.commit();
+        }
+        return evictable;
+    }
+
+    private long weigh(Key key, Value value) {
+        long weight = weigher.applyAsLong(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("weigher returned a negative weight [" + weight + "] for key [" + key + "]");
         }
+        return weight;
+    }
+
+    /**
+     * Subtracts the weight of an entry that left the map from the total. Safe against a concurrent {@link #reweigh(Object)}.
+     *
+     * @return the weight that was subtracted
+     */
+    private long releaseWeight(EntryHolder<Key, Value> entry) {
+        long entryWeight = takeWeight(entry);
+        weight.add(-entryWeight);
+        return entryWeight;
+    }
+
+    /**
+     * Marks the weight of an entry that left the map as removed without subtracting it from the total yet.
+     *
+     * @return the weight the caller has to subtract, 0 if it was already taken
+     */
+    private long takeWeight(EntryHolder<Key, Value> entry) {
+        long entryWeight = (long) WEIGHT.getAndSet(entry, REMOVED);
+        if (entryWeight == REMOVED) {
+            return 0;
+        }
+        if (timerWheel != null) {
+            // every path taking an entry out of the map comes through here, so it doesn't linger in the wheel
+            timerLock.lock();
+            try {
+                timerWheel.deschedule(entry);
+            } finally {
+                timerLock.unlock();
+            }
+        }
+        return entryWeight;
+    }
+
+    private long takeWeights(List<EntryHolder<Key, Value>> entries) {
+        long total = 0;
+        for (EntryHolder<Key, Value> entry : entries) {
+            total += takeWeight(entry);
+        }
+        return total;
     }
 
     private boolean hasSpace() {
@@ -276,28 +1006,316 @@ public class SieveCache<Key, Value> implements Cache<Key, Value> {
     }
 
     private void appendToHead(EntryHolder<Key, Value> newHead) {
-        queue.addFirst(newHead);
+        queue.offer(newHead);
+    }
+
+    /**
+     * Moves the compaction cursor, unlinking entries that are no longer in the map, until the number of dead entries is
+     * back under the ratio or the maximum number of steps was taken. Must hold the evictionLock.
+     *
+     * @param maxSteps the maximum number of entries the cursor moves over
+     * @return false if the cursor went over the whole queue without getting under the ratio
+     */
+    private boolean compact(int maxSteps) {
+        assert evictionLock.isHeldByCurrentThread();
+        boolean wrapped = false;
+        for (int step = 0; step < maxSteps && needsCompaction(); step++) {
+            EntryHolder<Key, Value> entry = compactionCursor;
+            if (entry == null) {
+                entry = queue.oldest();
+                if (entry == null || wrapped) {
+                    return false;
+                }
+                wrapped = true;
+            }
+            compactionCursor = queue.newer(entry);
+            // an entry is only linked after it was put in the map, if it isn't there anymore it has been removed
+            if (cache.get(entry.key) != entry) {
+                unlink(entry, true);
+            }
+        }
+        return true;
+    }
+
+    private boolean needsCompaction() {
+        return Drainer.needsCompaction(deadEntries.sum(), compactionRatio, count());
+    }
+
+    /**
+     * Unlinks the entry from the queue, moving the hand and compaction cursor along if they point to the entry. Must
+     * hold the evictionLock.
+     *
+     * @param entry the entry to unlink
+     * @param dead true if the entry was removed from the map by someone else and counted in deadEntries
+     */
+    private void unlink(EntryHolder<Key, Value> entry, boolean dead) {
+        assert evictionLock.isHeldByCurrentThread();
+        if (queue.unlink(entry)) {
+            if (hand == entry) {
+                hand = queue.newer(entry);
+            }
+            if (compactionCursor == entry) {
+                compactionCursor = queue.newer(entry);
+            }
+            if (dead) {
+                deadEntries.decrement();
+            }
+        } else if (!dead) {
+            // the newest entry has to stay, from now on it is a dead entry like any other
+            deadEntries.increment();
+        }
     }
 
     private void removeFromQueue(EntryHolder<Key, Value> entry, RemovalNotification.RemovalReason reason) {
-        //queue.remove(entry); we're setting the flag to false instead and let the sieve remove it at O(1)
-        entry.visited.lazySet(false);
+        assert reason != EVICTED : "evictions are recorded with their weight";
+        //queue.unlink(entry); we're setting the flag to false instead and let the sieve or compaction unlink it later
+        stats.recordRemoval(reason);
+        deadEntries.increment();
+        VISITS.setRelease(entry, (byte) 0);
         removalListener.onRemoval(new RemovalNotification<>(entry.key, entry.value, reason));
     }
 
+    private void recordAccess(Key key) {
+        if (admission != null) {
+            admission.increment(key.hashCode());
+        }
+    }
+
+    /**
+     * Decides whether a write may add an entry. Replacing an entry is always admitted.
+     *
+     * @return false if admission rejects the entry
+     */
+    private boolean admits(Key key, long entryWeight) {
+        return admission == null || cache.containsKey(key) || admitsAbsent(key, entryWeight);
+    }
+
+    /**
+     * Compares the frequency of a key that isn't in the cache with that of the entry the hand evicts next, if adding it
+     * would make the cache evict.
+     *
+     * @return false if the new entry loses and must be dropped
+     */
+    private boolean admitsAbsent(Key key, long entryWeight) {
+        if ((maxCapacity == null || count() + 1 < maxCapacity) && (maxWeight == null || weight() + entryWeight < maxWeight)) {
+            return true;
+        }
+        EntryHolder<Key, Value> victim = victim();
+        return victim == null || admission.frequency(key.hashCode()) > admission.frequency(victim.key.hashCode());
+    }
+
+    /**
+     * Records and notifies an entry admission dropped. Must not be called from within a map operation, the listener may
+     * use the cache.
+     */
+    private void reject(Key key, Value value) {
+        stats.recordRemoval(REJECTED);
+        removalListener.onRemoval(new RemovalNotification<>(key, value, REJECTED));
+    }
+
+    /**
+     * Walks from the hand past the entries it would give a second chance or find dead, without the evictionLock, so a
+     * stale hand only makes for a less accurate comparison.
+     *
+     * @return the entry the hand most likely evicts next, or null if the queue is empty
+     */
+    private EntryHolder<Key, Value> victim() {
+        EntryHolder<Key, Value> victim = hand;
+        if (victim == null) {
+            victim = queue.oldest();
+        }
+        for (int i = 0; i < MAX_VICTIM_STEPS && victim != null && (victim.visits > 0 && !fifo || victim.weight == REMOVED); i++) {
+            EntryHolder<Key, Value> newer = queue.newer(victim);
+            victim = newer != null ? newer : queue.oldest();
+        }
+        return victim;
+    }
+
     private void markHit(EntryHolder<Key, Value> result) {
-        hits.increment();
-        if (!result.visited.get()) {
-            result.visited.lazySet(true);
+        stats.recordHits(1);
+        markVisited(result);
+    }
+
+    private void markVisited(EntryHolder<Key, Value> result) {
+        byte visits = result.visits;
+        byte limit = costAware ? result.credit : maxVisits;
+        // a single attempt, losing a hit to a concurrent one or to the hand only makes the count less exact
+        if (!fifo && visits < limit) {
+            VISITS.compareAndSet(result, visits, costAware ? limit : (byte) (visits + 1));
         }
         if(entriesExpireAfterAccess) {
             result.accessTime = now();
         }
     }
 
+    /**
+     * Sets the credit of a new entry from its cost per unit of weight, relative to the mean: the middle of the range
+     * for an average entry, a step up or down for every doubling or halving. Entries above the middle start out with
+     * what they have above it.
+     *
+     * @param loadNanos how long loading the entry took, -1 if it was put
+     */
+    private void assignCredit(EntryHolder<Key, Value> entry, long loadNanos) {
+        int middle = (maxVisits + 1) / 2;
+        long entryCost = cost != null ? cost.applyAsLong(entry.key, entry.value) : loadNanos;
+        int credit = middle;
+        if (entryCost >= 0) {
+            double costPerWeight = (double) entryCost / Math.max(entry.weight, 1);
+            double mean = meanCostPerWeight;
+            meanCostPerWeight = mean == 0 ? costPerWeight : mean + (costPerWeight - mean) / 1024;
+            if (mean > 0) {
+                credit = costPerWeight == 0 ? 1 : middle + Math.getExponent(costPerWeight / mean);
+            }
+        }
+        entry.credit = (byte) Math.clamp(credit, 1, maxVisits);
+        entry.visits = (byte) Math.max(0, entry.credit - middle);
+    }
+
+    /**
+     * Takes a hit off the entry as the hand passes it.
+     *
+     * @return false if the entry had no hits left and is to be evicted
+     */
+    private boolean takeVisit(EntryHolder<Key, Value> entry) {
+        while (true) {
+            byte visits = entry.visits;
+            if (visits == 0) {
+                return false;
+            }
+            if (VISITS.weakCompareAndSet(entry, visits, (byte) (visits - 1))) {
+                return true;
+            }
+        }
+    }
+
     private boolean isExpired(EntryHolder<Key, Value> entry, long now) {
         return (entriesExpireAfterAccess && now - entry.accessTime > expireAfterAccessNanos)
-                || (entriesExpireAfterWrite && now - entry.writeTime > expireAfterWriteNanos);
+                || (entriesExpireAfterWrite && now - entry.writeTime > expireAfterWriteNanos)
+                || (expiry != null && now - entry.expiresAt >= 0);
+    }
+
+    private static long expiresAt(long now, long lifetime) {
+        return now + Math.max(0, Math.min(lifetime, MAX_LIFETIME_NANOS));
+    }
+
+    /**
+     * Maps the key of a written entry to it. With an expiry the lifetime is set in the same step, from
+     * {@link Expiry#expireAfterCreate} for a new key and from {@link Expiry#expireAfterUpdate} for a replaced entry, so
+     * the expiry sees every write exactly once.
+     *
+     * @return the replaced entry, null if there was none
+     */
+    private EntryHolder<Key, Value> insert(EntryHolder<Key, Value> entry, long now) {
+        if (expiry == null) {
+            return cache.put(entry.key, entry);
+        }
+        var replaced = new AtomicReference<EntryHolder<Key, Value>>();
+        cache.compute(entry.key, (key, oldValue) -> {
+            replaced.set(oldValue);
+            long lifetime = oldValue == null
+                    ? expiry.expireAfterCreate(key, entry.value, now)
+                    : expiry.expireAfterUpdate(key, entry.value, now, oldValue.expiresAt - now);
+            entry.expiresAt = expiresAt(now, lifetime);
+            return entry;
+        });
+        return replaced.get();
+    }
+
+    /**
+     * Schedules a written entry in the wheel.
+     */
+    private void afterWrite(EntryHolder<Key, Value> entry, long now) {
+        timerLock.lock();
+        try {
+            // it might have left the map already, then it must not end up in the wheel
+            if (entry.weight != REMOVED) {
+                timerWheel.schedule(entry);
+            }
+        } finally {
+            timerLock.unlock();
+        }
+        maybeAdvanceTimerWheel(now);
+    }
+
+    /**
+     * Checks whether a read entry is still alive and lets the expiry extend or shorten its lifetime.
+     *
+     * @return false if the entry expired and must be treated as absent
+     */
+    private boolean afterRead(EntryHolder<Key, Value> entry) {
+        long now = now();
+        maybeAdvanceTimerWheel(now);
+        long expiresAt = entry.expiresAt;
+        if (now - expiresAt >= 0) {
+            return false;
+        }
+        long newExpiresAt = expiresAt(now, expiry.expireAfterRead(entry.key, entry.value, now, expiresAt - now));
+        if (newExpiresAt != expiresAt) {
+            entry.expiresAt = newExpiresAt;
+            if (newExpiresAt - expiresAt < 0) {
+                // the wheel only catches up with lifetimes that grew, move it to an earlier bucket
+                timerLock.lock();
+                try {
+                    if (entry.nextInWheel != null) {
+                        timerWheel.deschedule(entry);
+                        timerWheel.schedule(entry);
+                    }
+                } finally {
+                    timerLock.unlock();
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Hands the timer wheel to the background once per tick, there is nothing to expire in between.
+     */
+    private void maybeAdvanceTimerWheel(long now) {
+        if (now - timerWheelAdvancedAt >= TimerWheel.tickNanos()) {
+            drainer.schedule();
+        }
+    }
+
+    private void advanceTimerWheel(long now) {
+        List<EntryHolder<Key, Value>> expired = new ArrayList<>();
+        timerLock.lock();
+        try {
+            timerWheelAdvancedAt = now;
+            timerWheel.advance(now, expired::add);
+        } finally {
+            timerLock.unlock();
+        }
+        // outside the lock, so the removal listener doesn't hold up writers scheduling their entries
+        RuntimeException failure = null;
+        for (EntryHolder<Key, Value> entry : expired) {
+            try {
+                expire(entry);
+            } catch (RuntimeException e) {
+                // these entries are out of the wheel already, expire the rest before reporting the failing listener
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Removes an expired entry from the map. It stays in the queue as a dead entry until the hand or compaction
+     * unlinks it, so this doesn't need the evictionLock.
+     */
+    private void expire(EntryHolder<Key, Value> entry) {
+        if (cache.remove(entry.key, entry)) {
+            size.decrement();
+            releaseWeight(entry);
+            removeFromQueue(entry, EXPIRED);
+            afterRemoval();
+        }
     }
 
     /**
@@ -306,9 +1324,9 @@ public class SieveCache<Key, Value> implements Cache<Key, Value> {
      * @return the current relative time
      */
     protected long now() {
-        // System.nanoTime takes non-negligible time, so we only use it if we need it
-        // use System.nanoTime because we want relative time, not absolute time
-        return entriesExpireAfterAccess || entriesExpireAfterWrite ? System.nanoTime() : 0;
+        // reading the ticker takes non-negligible time, so we only use it if we need it
+        // the ticker gives relative time, not absolute time
+        return entriesExpireAfterAccess || entriesExpireAfterWrite || expiry != null ? ticker.read() : 0;
     }
 
     private static class CacheLoaderException extends RuntimeException {
@@ -438,11 +1456,9 @@ public class SieveCache<Key, Value> implements Cache<Key, Value> {
             }
             if (cache.remove(last.key, last)) {
                 size.decrement();
-                weight.add(-weigher.applyAsLong(last.key, last.value));
-                queue.remove(last);
-                removalListener.onRemoval(new RemovalNotification<>(last.key, last.value, INVALIDATED));
-            } else {
-                queue.remove(last);
+                releaseWeight(last);
+                removeFromQueue(last, INVALIDATED);
+                afterRemoval();
             }
             last = null;
         }
@@ -455,4 +1471,50 @@ public class SieveCache<Key, Value> implements Cache<Key, Value> {
             });
         }
     }
+
+    /**
+     * Periodically refreshes a cache. Only weakly references it, so a cache that is dropped without being closed
+     * doesn't stay reachable through the sweeper thread.
+     */
+    private static final class Sweeper implements Runnable {
+        private static final class ExecutorHolder {
+            private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("cache-expiration-sweeper").daemon().factory()
+            );
+        }
+
+        private final WeakReference<SieveCache<?, ?>> cache;
+        private volatile ScheduledFuture<?> future;
+
+        Sweeper(SieveCache<?, ?> cache) {
+            this.cache = new WeakReference<>(cache);
+        }
+
+        void start(long intervalNanos) {
+            future = ExecutorHolder.EXECUTOR.scheduleWithFixedDelay(this, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        }
+
+        void cancel() {
+            ScheduledFuture<?> future = this.future;
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+
+        @Override
+        public void run() {
+            SieveCache<?, ?> cache = this.cache.get();
+            if (cache == null || cache.drainer.isClosed()) {
+                cancel();
+                return;
+            }
+            try {
+                cache.refresh();
+            } catch (RuntimeException e) {
+                // e.g. a failing removal listener, report it but keep sweeping, an exception would cancel the sweeps
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+        }
+    }
 }
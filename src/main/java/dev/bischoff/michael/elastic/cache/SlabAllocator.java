@@ -0,0 +1,201 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out chunks of off-heap memory carved from large slabs allocated in a shared {@link Arena}.
+ * <p>
+ * Chunks come in power of two size classes. A freed chunk goes onto the free list of its size class and is handed out
+ * again for the next allocation of that class, memory is only returned to the operating system when the allocator is
+ * closed. Every chunk starts with a version that is bumped when the chunk is freed, readers use it to detect that the
+ * chunk was freed, and possibly reused, while they were reading, in the same way as a seqlock.
+ * </p>
+ */
+final class SlabAllocator implements AutoCloseable {
+
+    /**
+     * A chunk handed out by the allocator.
+     *
+     * @param handle the slab index in the upper 32 bits and the offset of the chunk in the lower 32 bits
+     * @param length the number of bytes in use
+     * @param sizeClass the size class of the chunk
+     * @param version the version of the chunk when it was handed out
+     */
+    record Slot(long handle, int length, int sizeClass, long version) {}
+
+    public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    // room for the version
+    private static final int HEADER_SIZE = Long.BYTES;
+    private static final int MIN_CHUNK_SHIFT = 6;
+
+    private final Arena arena = Arena.ofShared();
+    private final int slabSize;
+    private final ReentrantLock slabLock = new ReentrantLock();
+    // copy on write, guarded by slabLock
+    private volatile MemorySegment[] slabs = new MemorySegment[0];
+    // the offset in the last slab where carving continues, guarded by slabLock
+    private int bump;
+    private final FreeList[] freeLists;
+
+    private static final class FreeList {
+        final ReentrantLock lock = new ReentrantLock();
+        long[] handles = new long[16];
+        int size;
+    }
+
+    /**
+     * @param slabSize the size of the slabs, a power of two, also the largest chunk that can be allocated
+     */
+    SlabAllocator(int slabSize) {
+        if (Integer.bitCount(slabSize) != 1 || slabSize < (1 << MIN_CHUNK_SHIFT)) {
+            throw new IllegalArgumentException("slabSize must be a power of two of at least " + (1 << MIN_CHUNK_SHIFT));
+        }
+        this.slabSize = slabSize;
+        this.freeLists = new FreeList[Integer.numberOfTrailingZeros(slabSize) - MIN_CHUNK_SHIFT + 1];
+        for (int i = 0; i < freeLists.length; i++) {
+            freeLists[i] = new FreeList();
+        }
+    }
+
+    /**
+     * @return the number of bytes a chunk for a value of the given length takes, including its header
+     */
+    int chunkSize(int length) {
+        return chunkSizeOf(sizeClassOf(length));
+    }
+
+    /**
+     * Allocates a chunk and lets the writer fill it.
+     *
+     * @param length the number of bytes needed
+     * @return the slot referring to the chunk
+     */
+    Slot allocate(int length) {
+        int sizeClass = sizeClassOf(length);
+        long handle = pop(freeLists[sizeClass]);
+        if (handle == -1) {
+            handle = carve(chunkSizeOf(sizeClass));
+        }
+        MemorySegment chunk = chunk(handle);
+        return new Slot(handle, length, sizeClass, chunk.get(ValueLayout.JAVA_LONG, 0));
+    }
+
+    /**
+     * @return the part of the chunk holding the value, only to be written by whoever allocated the slot
+     */
+    MemorySegment data(Slot slot) {
+        return chunk(slot.handle()).asSlice(HEADER_SIZE, slot.length());
+    }
+
+    /**
+     * Copies the value out of the chunk onto the heap.
+     *
+     * @return the copy or null if the chunk was freed before or while copying
+     */
+    byte[] read(Slot slot) {
+        MemorySegment chunk = chunk(slot.handle());
+        if (chunk.get(ValueLayout.JAVA_LONG, 0) != slot.version()) {
+            return null;
+        }
+        VarHandle.acquireFence();
+        byte[] copy = new byte[slot.length()];
+        MemorySegment.copy(chunk, ValueLayout.JAVA_BYTE, HEADER_SIZE, copy, 0, slot.length());
+        VarHandle.loadLoadFence();
+        if (chunk.get(ValueLayout.JAVA_LONG, 0) != slot.version()) {
+            return null;
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the chunk to its free list. Readers still holding the slot will fail to read from then on.
+     */
+    void free(Slot slot) {
+        MemorySegment chunk = chunk(slot.handle());
+        chunk.set(ValueLayout.JAVA_LONG, 0, slot.version() + 1);
+        // the new version must be visible before the chunk can be handed out and written again
+        VarHandle.fullFence();
+        push(freeLists[slot.sizeClass()], slot.handle());
+    }
+
+    /**
+     * @return the number of bytes allocated off-heap, whether in use or not
+     */
+    long allocatedBytes() {
+        return (long) slabs.length * slabSize;
+    }
+
+    /**
+     * Frees all off-heap memory, slots handed out must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    private MemorySegment chunk(long handle) {
+        return slabs[(int) (handle >>> 32)].asSlice((int) handle);
+    }
+
+    private int sizeClassOf(int length) {
+        if (length < 0 || length > slabSize - HEADER_SIZE) {
+            throw new IllegalArgumentException("can't allocate [" + length + "] bytes, the maximum is [" + (slabSize - HEADER_SIZE) + "]");
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(length + HEADER_SIZE - 1);
+        return Math.max(shift, MIN_CHUNK_SHIFT) - MIN_CHUNK_SHIFT;
+    }
+
+    private static int chunkSizeOf(int sizeClass) {
+        return 1 << (sizeClass + MIN_CHUNK_SHIFT);
+    }
+
+    private long carve(int chunkSize) {
+        slabLock.lock();
+        try {
+            MemorySegment[] current = slabs;
+            if (current.length == 0 || bump + chunkSize > slabSize) {
+                if (current.length == Integer.MAX_VALUE) {
+                    throw new IllegalStateException("out of slabs");
+                }
+                // the remainder of the last slab is lost, at most the size of the largest chunk
+                MemorySegment[] grown = Arrays.copyOf(current, current.length + 1);
+                grown[current.length] = arena.allocate(slabSize, Long.BYTES);
+                slabs = grown;
+                current = grown;
+                bump = 0;
+            }
+            long handle = ((long) (current.length - 1) << 32) | bump;
+            bump += chunkSize;
+            return handle;
+        } finally {
+            slabLock.unlock();
+        }
+    }
+
+    private static long pop(FreeList freeList) {
+        freeList.lock.lock();
+        try {
+            return freeList.size == 0 ? -1 : freeList.handles[--freeList.size];
+        } finally {
+            freeList.lock.unlock();
+        }
+    }
+
+    private static void push(FreeList freeList, long handle) {
+        freeList.lock.lock();
+        try {
+            if (freeList.size == freeList.handles.length) {
+                freeList.handles = Arrays.copyOf(freeList.handles, freeList.size * 2);
+            }
+            freeList.handles[freeList.size++] = handle;
+        } finally {
+            freeList.lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package dev.bischoff.michael.elastic.cache;
+
+/**
+ * Records the statistics of a cache as they happen, see {@link Cache.Stats} for what is recorded.
+ * <p>
+ * Caches call the counter on their hot path, so implementations must be cheap and thread-safe. {@link #disabled()}
+ * records nothing, for caches whose statistics aren't looked at.
+ * </p>
+ */
+interface StatsCounter {
+
+    void recordHits(long count);
+
+    void recordMisses(long count);
+
+    /**
+     * @param loadTimeNanos how long the load took
+     */
+    void recordLoadSuccess(long loadTimeNanos);
+
+    /**
+     * Records a load that threw or returned null.
+     *
+     * @param loadTimeNanos how long the load took
+     */
+    void recordLoadFailure(long loadTimeNanos);
+
+    /**
+     * Records an entry that was evicted to stay within the maximum weight.
+     *
+     * @param weight the weight of the evicted entry
+     */
+    void recordEviction(long weight);
+
+    /**
+     * Records an entry that was removed for another reason than eviction, see {@link #recordEviction(long)}.
+     */
+    void recordRemoval(RemovalNotification.RemovalReason reason);
+
+    /**
+     * @return the statistics recorded so far, all zeros if disabled
+     */
+    Cache.Stats snapshot();
+
+    /**
+     * @return a new counter striped over {@link java.util.concurrent.atomic.LongAdder}s
+     */
+    static StatsCounter concurrent() {
+        return new ConcurrentStatsCounter();
+    }
+
+    /**
+     * @return a counter recording nothing
+     */
+    static StatsCounter disabled() {
+        return DisabledStatsCounter.INSTANCE;
+    }
+}
@@ -0,0 +1,13 @@
+package dev.bischoff.michael.elastic.cache;
+
+/**
+ * Reads {@link System#nanoTime()}.
+ */
+enum SystemTicker implements Ticker {
+    INSTANCE;
+
+    @Override
+    public long read() {
+        return System.nanoTime();
+    }
+}
@@ -0,0 +1,36 @@
+package dev.bischoff.michael.elastic.cache;
+
+/**
+ * The source of relative time caches use for expiration and refresh, in nanoseconds. Only the difference between two
+ * readings is meaningful, just like {@link System#nanoTime()}.
+ * <p>
+ * Expiration is usually configured in seconds or more, so reading a precise clock on every lookup is wasted work.
+ * {@link #coarse()} trades precision for a cheaper read, {@link ManualTicker} makes time deterministic for tests and
+ * benchmarks.
+ * </p>
+ */
+@FunctionalInterface
+public interface Ticker {
+    /**
+     * @return the current time in nanoseconds
+     */
+    long read();
+
+    /**
+     * @return a ticker reading {@link System#nanoTime()}, the default
+     */
+    static Ticker systemTicker() {
+        return SystemTicker.INSTANCE;
+    }
+
+    /**
+     * A ticker reading a volatile that a background daemon thread updates every millisecond, so a read is as cheap as a
+     * field access. It may lag behind the system ticker by a few milliseconds, more if the thread doesn't get scheduled
+     * in time. The thread is started on first use and shared by all caches.
+     *
+     * @return the shared coarse ticker
+     */
+    static Ticker coarse() {
+        return CoarseTicker.instance();
+    }
+}
@@ -0,0 +1,160 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Hierarchical timer wheel for per-entry expiration.
+ * <p>
+ * Every level is a ring of buckets, each bucket an intrusive doubly-linked list of the nodes expiring in its span of
+ * time. The finest level has buckets of about a second, each next level buckets as wide as the whole ring below it,
+ * up to a single bucket for everything further out than about six days. Scheduling and descheduling are O(1).
+ * {@link #advance(long, Consumer)} only visits the buckets whose time passed; nodes found in a coarse bucket are moved
+ * down to a finer level, nodes in the finest level are expired. So every node is touched a small, constant number of
+ * times, instead of scanning all entries to find the expired ones.
+ * </p>
+ * Expiration times can change without rescheduling as long as they only grow, a node that turns out not to be expired
+ * yet when its bucket comes up is simply rescheduled. Not thread-safe, callers guard the wheel with a lock.
+ *
+ * @param <N> the type of the nodes
+ */
+final class TimerWheel<N extends TimerWheel.Timed<N>> {
+
+    /**
+     * An element of the wheel, carrying its own links.
+     *
+     * @param <N> the type of the nodes, the implementing class itself
+     */
+    interface Timed<N> {
+        long expiresAt();
+
+        N previousInWheel();
+
+        void setPreviousInWheel(N previous);
+
+        N nextInWheel();
+
+        void setNextInWheel(N next);
+    }
+
+    // the number of buckets per level, the last one catches everything further out
+    private static final int[] BUCKETS = { 64, 64, 32, 4, 1 };
+    // the width of a bucket per level as a power of two nanoseconds, ~1.07s, ~1.14m, ~1.22h, ~1.63d, ~6.5d
+    private static final int[] SHIFTS = { 30, 36, 42, 47, 49 };
+
+    private final N[][] wheel;
+    // the time the wheel was created at, all times are relative to it to stay positive
+    private final long origin;
+    // the time, relative to origin, the wheel was last advanced to
+    private long nanos;
+
+    /**
+     * @param currentTime the current time in nanoseconds
+     * @param sentinels creates the nodes anchoring the buckets, these are never expired
+     */
+    @SuppressWarnings("unchecked")
+    TimerWheel(long currentTime, Supplier<N> sentinels) {
+        this.origin = currentTime;
+        this.wheel = (N[][]) new Timed<?>[BUCKETS.length][];
+        for (int level = 0; level < BUCKETS.length; level++) {
+            wheel[level] = (N[]) new Timed<?>[BUCKETS[level]];
+            for (int bucket = 0; bucket < BUCKETS[level]; bucket++) {
+                N sentinel = sentinels.get();
+                sentinel.setPreviousInWheel(sentinel);
+                sentinel.setNextInWheel(sentinel);
+                wheel[level][bucket] = sentinel;
+            }
+        }
+    }
+
+    /**
+     * @return the width of the finest bucket in nanoseconds, advancing more often than that is a no-op
+     */
+    static long tickNanos() {
+        return 1L << SHIFTS[0];
+    }
+
+    /**
+     * Adds the node to the bucket its expiration time falls in.
+     *
+     * @param node a node not in the wheel
+     */
+    void schedule(N node) {
+        long time = Math.max(node.expiresAt() - origin, nanos);
+        long delta = time - nanos;
+        int level = 0;
+        while (level < BUCKETS.length - 1 && delta >= (1L << SHIFTS[level + 1])) {
+            level++;
+        }
+        N[] buckets = wheel[level];
+        N sentinel = buckets[(int) ((time >>> SHIFTS[level]) & (buckets.length - 1))];
+        N last = sentinel.previousInWheel();
+        node.setPreviousInWheel(last);
+        node.setNextInWheel(sentinel);
+        last.setNextInWheel(node);
+        sentinel.setPreviousInWheel(node);
+    }
+
+    /**
+     * Removes the node from the wheel, if it is in there.
+     */
+    void deschedule(N node) {
+        N next = node.nextInWheel();
+        if (next == null) {
+            return;
+        }
+        N previous = node.previousInWheel();
+        next.setPreviousInWheel(previous);
+        previous.setNextInWheel(next);
+        node.setPreviousInWheel(null);
+        node.setNextInWheel(null);
+    }
+
+    /**
+     * Moves the wheel to the current time, handing every node that expired to the consumer after taking it out of the
+     * wheel. Nodes that aren't due yet are rescheduled.
+     *
+     * @param currentTime the current time in nanoseconds
+     * @param expired receives the expired nodes
+     */
+    void advance(long currentTime, Consumer<N> expired) {
+        long previous = nanos;
+        long current = currentTime - origin;
+        if (current <= previous) {
+            return;
+        }
+        nanos = current;
+        for (int level = 0; level < BUCKETS.length; level++) {
+            long previousTicks = previous >>> SHIFTS[level];
+            long currentTicks = current >>> SHIFTS[level];
+            if (currentTicks == previousTicks) {
+                break;
+            }
+            expire(level, previousTicks, currentTicks - previousTicks, expired);
+        }
+    }
+
+    private void expire(int level, long previousTicks, long ticks, Consumer<N> expired) {
+        N[] buckets = wheel[level];
+        int mask = buckets.length - 1;
+        int steps = (int) Math.min(ticks + 1, buckets.length);
+        int start = (int) (previousTicks & mask);
+        for (int i = start; i < start + steps; i++) {
+            N sentinel = buckets[i & mask];
+            N node = sentinel.nextInWheel();
+            sentinel.setPreviousInWheel(sentinel);
+            sentinel.setNextInWheel(sentinel);
+            while (node != sentinel) {
+                N next = node.nextInWheel();
+                node.setPreviousInWheel(null);
+                node.setNextInWheel(null);
+                if (node.expiresAt() - origin <= nanos) {
+                    expired.accept(node);
+                } else {
+                    schedule(node);
+                }
+                node = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package dev.bischoff.michael.elastic.cache;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Turns values into bytes and back for caches that keep their values off-heap, see {@link OffHeapSieveCache}.
+ *
+ * @param <V> the type of the values
+ */
+public interface ValueSerializer<V> {
+    /**
+     * @param value the value to serialize
+     * @return the exact number of bytes {@link #serialize(Object, MemorySegment)} writes for the value
+     */
+    int serializedSize(V value);
+
+    /**
+     * Writes the value into the target, which is exactly {@link #serializedSize(Object)} bytes long.
+     *
+     * @param value the value to serialize
+     * @param target the segment to write to
+     */
+    void serialize(V value, MemorySegment target);
+
+    /**
+     * Reads a value written by {@link #serialize(Object, MemorySegment)}. The source is a heap copy, the returned value
+     * may keep a reference to it.
+     *
+     * @param source the serialized value
+     * @return the value
+     */
+    V deserialize(MemorySegment source);
+}
@@ -2,6 +2,7 @@ package dev.bischoff.michael.elastic.cache.benchmarks;
 
 import dev.bischoff.michael.elastic.cache.Cache;
 import dev.bischoff.michael.elastic.cache.CacheBuilder;
+import dev.bischoff.michael.elastic.cache.S3FifoCache;
 import dev.bischoff.michael.elastic.cache.SieveCache;
 import org.openjdk.jmh.annotations.*;
 
@@ -28,6 +29,7 @@ public class CacheFillBenchmark {
     private Map<String, String> dataset;
     private Cache<String, String> lruCache;
     private Cache<String, String> sieveCache;
+    private Cache<String, String> s3FifoCache;
     private Map<String, String> concurrentHashMap;
 
     @Setup(Level.Iteration)
@@ -37,11 +39,13 @@ public class CacheFillBenchmark {
         if ("PLAIN".equals(mode)) {
             lruCache = CacheBuilder.<String, String>builder().build();
             sieveCache = new SieveCache<>();
+            s3FifoCache = new S3FifoCache<>();
         } else if ("OVERFILL_10".equals(mode)) {
             long maxWeight = datasetSize / 10;
             ToLongBiFunction<String, String> weigher = (key, value) -> 1L;
             lruCache = CacheBuilder.<String, String>builder().setMaximumWeight(maxWeight).build();
             sieveCache = new SieveCache<>(null, maxWeight, null, weigher);
+            s3FifoCache = new S3FifoCache<>(null, maxWeight, null, weigher);
         }
 
         concurrentHashMap = new ConcurrentHashMap<>();
@@ -58,6 +62,11 @@ public class CacheFillBenchmark {
         dataset.forEach(sieveCache::put);
     }
 
+    @Benchmark
+    public void s3FifoCacheFill() {
+        dataset.forEach(s3FifoCache::put);
+    }
+
     @Benchmark
     public void chmFill() {
         dataset.forEach(concurrentHashMap::put);
@@ -2,6 +2,7 @@ package dev.bischoff.michael.elastic.cache.benchmarks;
 
 import dev.bischoff.michael.elastic.cache.Cache;
 import dev.bischoff.michael.elastic.cache.CacheBuilder;
+import dev.bischoff.michael.elastic.cache.S3FifoCache;
 import dev.bischoff.michael.elastic.cache.SieveCache;
 import org.openjdk.jmh.annotations.*;
 
@@ -26,6 +27,7 @@ public class CacheInvalidateAllBenchmark {
     private Map<String, String> dataset;
     private Cache<String, String> lruCache;
     private Cache<String, String> sieveCache;
+    private Cache<String, String> s3FifoCache;
     private Map<String, String> concurrentHashMap;
 
     @Setup(Level.Iteration)
@@ -34,11 +36,13 @@ public class CacheInvalidateAllBenchmark {
 
         lruCache = CacheBuilder.<String, String>builder().build();
         sieveCache = new SieveCache<>();
+        s3FifoCache = new S3FifoCache<>();
         concurrentHashMap = new ConcurrentHashMap<>();
 
         // Fill once so that clearing benchmarks have something to clear
         dataset.forEach(lruCache::put);
         dataset.forEach(sieveCache::put);
+        dataset.forEach(s3FifoCache::put);
         dataset.forEach(concurrentHashMap::put);
     }
 
@@ -52,6 +56,11 @@ public class CacheInvalidateAllBenchmark {
         sieveCache.invalidateAll();
     }
 
+    @Benchmark
+    public void s3FifoCacheClear() {
+        s3FifoCache.invalidateAll();
+    }
+
     @Benchmark
     public void chmClear() {
         concurrentHashMap.clear();
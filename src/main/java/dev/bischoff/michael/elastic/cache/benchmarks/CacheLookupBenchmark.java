@@ -3,6 +3,7 @@ package dev.bischoff.michael.elastic.cache.benchmarks;
 import dev.bischoff.michael.elastic.cache.Cache;
 import dev.bischoff.michael.elastic.cache.CacheBuilder;
 import dev.bischoff.michael.elastic.cache.ConcurrentHashMapWrapper;
+import dev.bischoff.michael.elastic.cache.S3FifoCache;
 import dev.bischoff.michael.elastic.cache.SieveCache;
 import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.infra.Blackhole;
@@ -22,7 +23,8 @@ public class CacheLookupBenchmark {
     public enum CacheType {
         LRU(() -> CacheBuilder.<String, String>builder().build()),
         SIEVE(SieveCache::new),
-        CHM(ConcurrentHashMapWrapper::new);
+        S3_FIFO(S3FifoCache::new),
+        CHM(() -> new ConcurrentHashMapWrapper<>(false));
 
         private final Supplier<Cache<String, String>> supplier;
 
@@ -37,7 +39,7 @@ public class CacheLookupBenchmark {
 
     @State(Scope.Thread)
     public static class BaseState {
-        @Param({"LRU", "SIEVE", "CHM"})
+        @Param({"LRU", "SIEVE", "S3_FIFO", "CHM"})
         public String cacheTypeName;
 
         protected Cache<String, String> cache;
@@ -32,6 +32,7 @@ public class Main {
                 8
         )) {
             new Runner(new OptionsBuilder().parent(options).include(MixedPutGetBenchmarks.class.getName()).threads(threads).output(dir + "jmh-threads" + threads + ".out").result(dir + "jmh-threads" + threads + ".json").build()).run();
+            new Runner(new OptionsBuilder().parent(options).include(WorkloadBenchmark.class.getName()).threads(threads).output(dir + "jmh-workload-threads" + threads + ".out").result(dir + "jmh-workload-threads" + threads + ".json").build()).run();
         }
     }
 }
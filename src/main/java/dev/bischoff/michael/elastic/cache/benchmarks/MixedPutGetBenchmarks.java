@@ -3,6 +3,7 @@ package dev.bischoff.michael.elastic.cache.benchmarks;
 import dev.bischoff.michael.elastic.cache.Cache;
 import dev.bischoff.michael.elastic.cache.CacheBuilder;
 import dev.bischoff.michael.elastic.cache.ConcurrentHashMapWrapper;
+import dev.bischoff.michael.elastic.cache.S3FifoCache;
 import dev.bischoff.michael.elastic.cache.SieveCache;
 import org.openjdk.jmh.annotations.*;
 import org.openjdk.jmh.infra.Blackhole;
@@ -22,7 +23,9 @@ public class MixedPutGetBenchmarks {
     public enum CacheType {
         LRU(() -> CacheBuilder.<String, String>builder().build()),
         SIEVE(SieveCache::new),
-        CHM(ConcurrentHashMapWrapper::new);
+        S3_FIFO(S3FifoCache::new),
+        SHARDED_SIEVE(() -> CacheBuilder.<String, String>builder().setShards(Runtime.getRuntime().availableProcessors()).buildSieveCache()),
+        CHM(() -> new ConcurrentHashMapWrapper<>(false));
 
         private final Supplier<Cache<String, String>> supplier;
         CacheType(Supplier<Cache<String, String>> supplier) { this.supplier = supplier; }
@@ -31,7 +34,7 @@ public class MixedPutGetBenchmarks {
 
     @State(Scope.Benchmark)
     public static class BaseState {
-        @Param({"LRU", "SIEVE", "CHM"})
+        @Param({"LRU", "SIEVE", "S3_FIFO", "SHARDED_SIEVE", "CHM"})
         public String cacheTypeName;
 
         protected List<Map.Entry<String,String>> hotEntries;   // likely hits
@@ -0,0 +1,183 @@
+package dev.bischoff.michael.elastic.cache.benchmarks;
+
+import java.util.SplittableRandom;
+
+/**
+ * Generators of skewed key access patterns, pre-generated into an array of key indices before measuring so the cost
+ * of generating doesn't end up in the numbers. Indices are below {@link #keyCount(int, int)}, benchmarks map them to
+ * their own keys.
+ */
+public enum Workload {
+    /**
+     * Every key equally likely, no locality for a cache to exploit.
+     */
+    UNIFORM {
+        @Override
+        void fill(int[] trace, int keySpace, double skew, SplittableRandom random) {
+            for (int i = 0; i < trace.length; i++) {
+                trace[i] = random.nextInt(keySpace);
+            }
+        }
+    },
+    /**
+     * Zipfian popularity, the key of rank r is requested proportionally to 1/r^skew. Popular keys are the low indices.
+     */
+    ZIPF {
+        @Override
+        void fill(int[] trace, int keySpace, double skew, SplittableRandom random) {
+            Zipf zipf = new Zipf(keySpace, skew);
+            for (int i = 0; i < trace.length; i++) {
+                trace[i] = zipf.next(random);
+            }
+        }
+    },
+    /**
+     * Zipfian popularity with the popular keys spread over the key space instead of clustered at the low indices.
+     */
+    SCRAMBLED_ZIPF {
+        @Override
+        void fill(int[] trace, int keySpace, double skew, SplittableRandom random) {
+            Zipf zipf = new Zipf(keySpace, skew);
+            for (int i = 0; i < trace.length; i++) {
+                trace[i] = (int) Long.remainderUnsigned(fnv(zipf.next(random)), keySpace);
+            }
+        }
+    },
+    /**
+     * 90% of the requests go to a hot set of 10% of the keys, the hot set moves to other keys every eighth of the
+     * trace, so the cache has to let go of what used to be popular.
+     */
+    SHIFTING_HOTSPOT {
+        @Override
+        void fill(int[] trace, int keySpace, double skew, SplittableRandom random) {
+            int hotSize = Math.max(1, keySpace / 10);
+            int phaseLength = Math.max(1, trace.length / 8);
+            for (int i = 0; i < trace.length; i++) {
+                int hotStart = (int) ((long) (i / phaseLength) * hotSize % keySpace);
+                if (random.nextInt(10) < 9) {
+                    trace[i] = (hotStart + random.nextInt(hotSize)) % keySpace;
+                } else {
+                    trace[i] = random.nextInt(keySpace);
+                }
+            }
+        }
+    },
+    /**
+     * Scans over all keys in order, again and again. Any cache smaller than the key space that keeps recently used keys
+     * misses on every request.
+     */
+    LOOP {
+        @Override
+        void fill(int[] trace, int keySpace, double skew, SplittableRandom random) {
+            for (int i = 0; i < trace.length; i++) {
+                trace[i] = i % keySpace;
+            }
+        }
+    },
+    /**
+     * Half the requests are Zipfian over the key space, the other half for keys that are requested only once, flooding
+     * the cache with entries that are never hit.
+     */
+    ONE_HIT_WONDER {
+        @Override
+        void fill(int[] trace, int keySpace, double skew, SplittableRandom random) {
+            Zipf zipf = new Zipf(keySpace, skew);
+            int nextWonder = keySpace;
+            for (int i = 0; i < trace.length; i++) {
+                trace[i] = random.nextBoolean() ? zipf.next(random) : nextWonder++;
+            }
+        }
+
+        @Override
+        public int keyCount(int keySpace, int length) {
+            return keySpace + length;
+        }
+    };
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Generates a trace.
+     *
+     * @param length the number of requests
+     * @param keySpace the number of distinct keys requested repeatedly
+     * @param skew the Zipfian exponent, only used by the Zipfian workloads
+     * @param seed the same seed gives the same trace
+     * @return the key indices in request order
+     */
+    public int[] generate(int length, int keySpace, double skew, long seed) {
+        if (length <= 0) {
+            throw new IllegalArgumentException("length <= 0");
+        }
+        if (keySpace <= 0) {
+            throw new IllegalArgumentException("keySpace <= 0");
+        }
+        int[] trace = new int[length];
+        fill(trace, keySpace, skew, new SplittableRandom(seed));
+        return trace;
+    }
+
+    /**
+     * @return the number of distinct key indices a trace may hold, all indices are below it
+     */
+    public int keyCount(int keySpace, int length) {
+        return keySpace;
+    }
+
+    abstract void fill(int[] trace, int keySpace, double skew, SplittableRandom random);
+
+    private static long fnv(long value) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash ^= value & 0xff;
+            hash *= FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    /**
+     * Draws Zipfian ranks with the method of Gray et al., "Quickly Generating Billion-Record Synthetic Databases", in
+     * constant time per draw after computing the zeta constant once.
+     */
+    private static final class Zipf {
+        private final int items;
+        private final double theta;
+        private final double alpha;
+        private final double eta;
+        private final double zetaN;
+
+        Zipf(int items, double theta) {
+            if (!(theta > 0) || theta == 1) {
+                throw new IllegalArgumentException("skew must be positive and not 1");
+            }
+            this.items = items;
+            this.theta = theta;
+            this.zetaN = zeta(items, theta);
+            double zeta2 = zeta(2, theta);
+            this.alpha = 1.0 / (1.0 - theta);
+            this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetaN);
+        }
+
+        int next(SplittableRandom random) {
+            double u = random.nextDouble();
+            double uz = u * zetaN;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < 1.0 + Math.pow(0.5, theta)) {
+                return Math.min(1, items - 1);
+            }
+            return (int) Math.min(items - 1, (long) (items * Math.pow(eta * u - eta + 1, alpha)));
+        }
+
+        private static double zeta(int n, double theta) {
+            double sum = 0;
+            for (int i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package dev.bischoff.michael.elastic.cache.benchmarks;
+
+import dev.bischoff.michael.elastic.cache.Cache;
+import dev.bischoff.michael.elastic.cache.CacheBuilder;
+import dev.bischoff.michael.elastic.cache.ConcurrentHashMapWrapper;
+import dev.bischoff.michael.elastic.cache.EvictionPolicy;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+/**
+ * Get, and put on a miss, following the access patterns of {@link Workload}. The cache holds a tenth of the key space,
+ * the hit and miss counts are reported next to the throughput so speed can be weighed against eviction quality.
+ */
+@BenchmarkMode({Mode.Throughput})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 2)
+@Warmup(iterations = 4, time = 5, timeUnit = TimeUnit.SECONDS)
+@Timeout(time = 15, timeUnit = TimeUnit.SECONDS)
+@Measurement(time = 5, timeUnit = TimeUnit.SECONDS)
+public class WorkloadBenchmark {
+
+    // the number of pre-generated requests, a power of two so the cursor wraps with a mask
+    private static final int TRACE_LENGTH = 1 << 22;
+
+    public enum CacheType {
+        LRU(maximumWeight -> CacheBuilder.<String, String>builder().setMaximumWeight(maximumWeight).build()),
+        SIEVE(maximumWeight -> CacheBuilder.<String, String>builder().setMaximumWeight(maximumWeight).buildSieveCache()),
+        S3_FIFO(maximumWeight -> CacheBuilder.<String, String>builder().setMaximumWeight(maximumWeight).policy(EvictionPolicy.S3_FIFO).build()),
+        FIFO(maximumWeight -> CacheBuilder.<String, String>builder().setMaximumWeight(maximumWeight).policy(EvictionPolicy.FIFO).build()),
+        SHARDED_SIEVE(maximumWeight -> CacheBuilder.<String, String>builder()
+            .setMaximumWeight(maximumWeight)
+            .setShards(Runtime.getRuntime().availableProcessors())
+            .buildSieveCache()),
+        CHM(maximumWeight -> new ConcurrentHashMapWrapper<>(false));
+
+        private final LongFunction<Cache<String, String>> factory;
+        CacheType(LongFunction<Cache<String, String>> factory) { this.factory = factory; }
+        Cache<String, String> create(long maximumWeight) { return factory.apply(maximumWeight); }
+    }
+
+    @State(Scope.Benchmark)
+    public static class CacheState {
+        @Param({"LRU", "SIEVE", "S3_FIFO", "FIFO", "SHARDED_SIEVE", "CHM"})
+        public String cacheTypeName;
+
+        @Param({"ZIPF", "SCRAMBLED_ZIPF", "SHIFTING_HOTSPOT", "LOOP", "ONE_HIT_WONDER"})
+        public String workloadName;
+
+        @Param({"100000"})
+        public int keySpace;
+
+        @Param({"0.99"})
+        public double skew;
+
+        protected int[] trace;
+        protected String[] keys;
+        protected Cache<String, String> cache;
+
+        @Setup(Level.Trial)
+        public void setupTrial() {
+            Workload workload = Workload.valueOf(workloadName);
+            trace = workload.generate(TRACE_LENGTH, keySpace, skew, 12345);
+            keys = new String[workload.keyCount(keySpace, TRACE_LENGTH)];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = "key-" + i;
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void setupIteration() {
+            cache = CacheType.valueOf(cacheTypeName).create(keySpace / 10);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDownIteration() {
+            cache.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int position;
+
+        @Setup(Level.Iteration)
+        public void setup(CacheState state) {
+            // threads start at different points of the trace, so they don't request the same keys in lockstep
+            position = (int) (Thread.currentThread().threadId() * 0x9E3779B9L);
+        }
+
+        String next(CacheState state) {
+            return state.keys[state.trace[position++ & (TRACE_LENGTH - 1)]];
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class HitCounters {
+        public long hits;
+        public long misses;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            hits = 0;
+            misses = 0;
+        }
+    }
+
+    @Benchmark
+    public void getOrPut(CacheState state, Cursor cursor, HitCounters counters, Blackhole bh) {
+        String key = cursor.next(state);
+        String value = state.cache.get(key);
+        if (value == null) {
+            counters.misses++;
+            state.cache.put(key, key);
+        } else {
+            counters.hits++;
+        }
+        bh.consume(value);
+    }
+}
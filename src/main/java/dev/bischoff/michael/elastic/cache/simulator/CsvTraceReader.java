@@ -0,0 +1,132 @@
+package dev.bischoff.michael.elastic.cache.simulator;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Reads text lines of {@code key[,size[,op]]}, parsing the mapped bytes in place without creating strings.
+ * <p>
+ * Keys that are decimal numbers are used as is, other keys are hashed to a 64-bit id. A missing size is 1, a missing
+ * op is {@code get}, ops are {@code get}, {@code set} or {@code delete}, only the first letter is looked at. Empty
+ * lines, lines starting with {@code #} and a header line, recognized by a size that isn't a number, are skipped.
+ * </p>
+ */
+public final class CsvTraceReader implements TraceReader {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final MappedTrace trace;
+    private final MemorySegment segment;
+    private final long end;
+    private long position;
+
+    CsvTraceReader(MappedTrace trace) {
+        this.trace = trace;
+        this.segment = trace.segment();
+        this.end = segment.byteSize();
+    }
+
+    @Override
+    public boolean next(Request request) {
+        while (position < end) {
+            long lineStart = position;
+            long lineEnd = lineStart;
+            while (lineEnd < end && byteAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            position = lineEnd + 1;
+            if (lineEnd > lineStart && byteAt(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > lineStart && byteAt(lineStart) != '#' && parse(lineStart, lineEnd, request)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return false if the line is not a request, e.g. a header
+     */
+    private boolean parse(long start, long end, Request request) {
+        long keyEnd = indexOf(',', start, end);
+        long key = parseKey(start, keyEnd);
+        int size = 1;
+        Request.Op op = Request.Op.GET;
+        if (keyEnd < end) {
+            long sizeStart = keyEnd + 1;
+            long sizeEnd = indexOf(',', sizeStart, end);
+            long parsed = parseNumber(sizeStart, sizeEnd);
+            if (parsed < 0) {
+                return false;
+            }
+            size = (int) Math.min(parsed, Integer.MAX_VALUE);
+            if (sizeEnd < end) {
+                op = parseOp(sizeEnd + 1, end);
+            }
+        }
+        request.set(key, size, op);
+        return true;
+    }
+
+    private long parseKey(long start, long end) {
+        long number = parseNumber(start, end);
+        if (number >= 0) {
+            return number;
+        }
+        long hash = FNV_OFFSET_BASIS;
+        for (long i = start; i < end; i++) {
+            hash ^= byteAt(i) & 0xff;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * @return the non-negative decimal number, -1 if the field isn't one or doesn't fit in a long
+     */
+    private long parseNumber(long start, long end) {
+        if (start == end || end - start > 18) {
+            return -1;
+        }
+        long number = 0;
+        for (long i = start; i < end; i++) {
+            int digit = byteAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            number = number * 10 + digit;
+        }
+        return number;
+    }
+
+    private Request.Op parseOp(long start, long end) {
+        if (start == end) {
+            return Request.Op.GET;
+        }
+        return switch (byteAt(start) | 0x20) {
+            case 's' -> Request.Op.SET;
+            case 'd' -> Request.Op.DELETE;
+            default -> Request.Op.GET;
+        };
+    }
+
+    private long indexOf(char c, long start, long end) {
+        for (long i = start; i < end; i++) {
+            if (byteAt(i) == c) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private byte byteAt(long offset) {
+        return segment.get(ValueLayout.JAVA_BYTE, offset);
+    }
+
+    @Override
+    public void close() {
+        trace.close();
+    }
+}
@@ -0,0 +1,37 @@
+package dev.bischoff.michael.elastic.cache.simulator;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A trace file mapped into memory as a whole. The OS pages it in as it is read, so traces far larger than the heap
+ * stream through without being loaded.
+ */
+final class MappedTrace implements AutoCloseable {
+
+    private final Arena arena;
+    private final MemorySegment segment;
+
+    MappedTrace(Path path) throws IOException {
+        this.arena = Arena.ofConfined();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    MemorySegment segment() {
+        return segment;
+    }
+
+    @Override
+    public void close() {
+        arena.close();
+    }
+}
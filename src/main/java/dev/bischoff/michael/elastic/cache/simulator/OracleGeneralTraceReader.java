@@ -0,0 +1,49 @@
+package dev.bischoff.michael.elastic.cache.simulator;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+/**
+ * Reads the oracleGeneral binary format of libCacheSim: little-endian records of 24 bytes, a uint32 timestamp, a
+ * uint64 object id, a uint32 object size and an int64 logical time of the next request to the same object. Only the
+ * id and size are used, every record is a {@link Request.Op#GET}.
+ */
+public final class OracleGeneralTraceReader implements TraceReader {
+
+    static final int RECORD_SIZE = 24;
+    private static final ValueLayout.OfLong ID = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfInt SIZE = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final int ID_OFFSET = 4;
+    private static final int SIZE_OFFSET = 12;
+
+    private final MappedTrace trace;
+    private final MemorySegment segment;
+    // whole records only, a truncated last record is ignored
+    private final long end;
+    private long position;
+
+    OracleGeneralTraceReader(MappedTrace trace) {
+        this.trace = trace;
+        this.segment = trace.segment();
+        this.end = segment.byteSize() - segment.byteSize() % RECORD_SIZE;
+    }
+
+    @Override
+    public boolean next(Request request) {
+        if (position >= end) {
+            return false;
+        }
+        long key = segment.get(ID, position + ID_OFFSET);
+        // sizes are unsigned, larger than any cache we simulate once past 2GB
+        long size = Integer.toUnsignedLong(segment.get(SIZE, position + SIZE_OFFSET));
+        request.set(key, (int) Math.min(size, Integer.MAX_VALUE), Request.Op.GET);
+        position += RECORD_SIZE;
+        return true;
+    }
+
+    @Override
+    public void close() {
+        trace.close();
+    }
+}
@@ -0,0 +1,49 @@
+package dev.bischoff.michael.elastic.cache.simulator;
+
+/**
+ * A single request of a trace. Readers fill in the same instance for every request, so replaying doesn't allocate.
+ */
+public final class Request {
+
+    public enum Op {
+        // a read, filled on a miss
+        GET,
+        // a write, always stored
+        SET,
+        // an invalidation
+        DELETE
+    }
+
+    long key;
+    int size;
+    Op op;
+
+    /**
+     * @return the id of the requested object
+     */
+    public long key() {
+        return key;
+    }
+
+    /**
+     * @return the size of the object in bytes, 1 if the trace doesn't have sizes
+     */
+    public int size() {
+        return size;
+    }
+
+    public Op op() {
+        return op;
+    }
+
+    void set(long key, int size, Op op) {
+        this.key = key;
+        this.size = size;
+        this.op = op;
+    }
+
+    @Override
+    public String toString() {
+        return "Request{key=" + key + ", size=" + size + ", op=" + op + '}';
+    }
+}
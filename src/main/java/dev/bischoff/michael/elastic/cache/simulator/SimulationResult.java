@@ -0,0 +1,51 @@
+package dev.bischoff.michael.elastic.cache.simulator;
+
+/**
+ * The outcome of replaying a trace through a cache.
+ *
+ * @param policy the name of the simulated cache
+ * @param capacity the maximum weight of the cache, in entries or bytes
+ * @param requests the number of reads
+ * @param misses the number of reads that missed
+ * @param bytes the total size of the objects read
+ * @param missedBytes the total size of the objects that missed
+ * @param elapsedNanos the time the replay took
+ */
+public record SimulationResult(
+    String policy,
+    long capacity,
+    long requests,
+    long misses,
+    long bytes,
+    long missedBytes,
+    long elapsedNanos
+) {
+
+    public double missRatio() {
+        return requests == 0 ? 0.0 : (double) misses / requests;
+    }
+
+    public double byteMissRatio() {
+        return bytes == 0 ? 0.0 : (double) missedBytes / bytes;
+    }
+
+    /**
+     * @return the number of requests replayed per second
+     */
+    public double throughput() {
+        return elapsedNanos == 0 ? 0.0 : requests * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            "%-8s capacity=%-12d requests=%-12d missRatio=%.4f byteMissRatio=%.4f throughput=%.2fM/s",
+            policy,
+            capacity,
+            requests,
+            missRatio(),
+            byteMissRatio(),
+            throughput() / 1_000_000
+        );
+    }
+}
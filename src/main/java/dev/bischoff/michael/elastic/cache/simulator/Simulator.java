@@ -0,0 +1,166 @@
+package dev.bischoff.michael.elastic.cache.simulator;
+
+import dev.bischoff.michael.elastic.cache.Cache;
+import dev.bischoff.michael.elastic.cache.CacheBuilder;
+import dev.bischoff.michael.elastic.cache.EvictionPolicy;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Replays access traces through caches to measure how well they evict, rather than how fast they are.
+ * <p>
+ * A replay is single-threaded and deterministic: reads that miss fill the cache, writes always store and deletes
+ * invalidate. Caches that evict in the background are configured to evict on the writing thread instead, so the same
+ * trace always yields the same misses. Values are the object sizes, caches weigh by them when simulating bytes.
+ * </p>
+ * Usage: {@code Simulator <trace> <csv|oracleGeneral> <capacity>[,<capacity>...] [<policy>[,<policy>...]] [--bytes]}.
+ * Capacities are entries, or bytes with {@code --bytes}, all policies are simulated if none are given.
+ */
+public final class Simulator {
+
+    /**
+     * The caches that can be simulated.
+     */
+    public enum Policy {
+        LRU {
+            @Override
+            Cache<Long, Integer> create(long capacity, boolean weighBytes) {
+                return builder(capacity, weighBytes).build();
+            }
+        },
+        SIEVE {
+            @Override
+            Cache<Long, Integer> create(long capacity, boolean weighBytes) {
+                // evict on the writing thread, background eviction would make the replay depend on thread timing
+                return builder(capacity, weighBytes).setCallerRunsSteps(Integer.MAX_VALUE).policy(EvictionPolicy.SIEVE).build();
+            }
+        },
+        SIEVE_3BIT {
+            @Override
+            Cache<Long, Integer> create(long capacity, boolean weighBytes) {
+                return builder(capacity, weighBytes).setVisitedBits(3)
+                    .setCallerRunsSteps(Integer.MAX_VALUE)
+                    .policy(EvictionPolicy.SIEVE)
+                    .build();
+            }
+        },
+        SIEVE_TINYLFU {
+            @Override
+            Cache<Long, Integer> create(long capacity, boolean weighBytes) {
+                // the capacity also bounds the number of entries when weighing bytes, it only sizes the sketch there
+                return builder(capacity, weighBytes).maximumSize(capacity)
+                    .setAdmission(true)
+                    .setCallerRunsSteps(Integer.MAX_VALUE)
+                    .policy(EvictionPolicy.SIEVE)
+                    .build();
+            }
+        },
+        FIFO {
+            @Override
+            Cache<Long, Integer> create(long capacity, boolean weighBytes) {
+                return builder(capacity, weighBytes).setCallerRunsSteps(Integer.MAX_VALUE).policy(EvictionPolicy.FIFO).build();
+            }
+        },
+        S3_FIFO {
+            @Override
+            Cache<Long, Integer> create(long capacity, boolean weighBytes) {
+                return builder(capacity, weighBytes).setCallerRunsSteps(Integer.MAX_VALUE).policy(EvictionPolicy.S3_FIFO).build();
+            }
+        };
+
+        abstract Cache<Long, Integer> create(long capacity, boolean weighBytes);
+
+        private static CacheBuilder<Long, Integer> builder(long capacity, boolean weighBytes) {
+            CacheBuilder<Long, Integer> builder = CacheBuilder.<Long, Integer>builder().setMaximumWeight(capacity).setRecordStats(false);
+            if (weighBytes) {
+                builder.weigher((key, size) -> size);
+            }
+            return builder;
+        }
+    }
+
+    private Simulator() {}
+
+    /**
+     * Replays the trace through a new cache of the policy.
+     *
+     * @param trace the trace to replay, read to its end
+     * @param policy the cache to simulate
+     * @param capacity the maximum weight of the cache
+     * @param weighBytes whether the capacity is in bytes rather than entries
+     */
+    public static SimulationResult simulate(TraceReader trace, Policy policy, long capacity, boolean weighBytes) {
+        try (Cache<Long, Integer> cache = policy.create(capacity, weighBytes)) {
+            return replay(trace, cache, policy.name(), capacity);
+        }
+    }
+
+    /**
+     * Replays the trace through the given cache.
+     *
+     * @param trace the trace to replay, read to its end
+     * @param cache the cache to replay through, values are object sizes
+     * @param name the name to report the result under
+     * @param capacity the capacity to report the result under
+     */
+    public static SimulationResult replay(TraceReader trace, Cache<Long, Integer> cache, String name, long capacity) {
+        Request request = new Request();
+        long requests = 0;
+        long misses = 0;
+        long bytes = 0;
+        long missedBytes = 0;
+        long start = System.nanoTime();
+        while (trace.next(request)) {
+            Long key = request.key();
+            int size = request.size();
+            switch (request.op()) {
+                case GET -> {
+                    requests++;
+                    bytes += size;
+                    if (cache.get(key) == null) {
+                        misses++;
+                        missedBytes += size;
+                        cache.put(key, size);
+                    }
+                }
+                case SET -> cache.put(key, size);
+                case DELETE -> cache.invalidate(key);
+            }
+        }
+        return new SimulationResult(name, capacity, requests, misses, bytes, missedBytes, System.nanoTime() - start);
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> arguments = new ArrayList<>(List.of(args));
+        boolean weighBytes = arguments.remove("--bytes");
+        if (arguments.size() < 3 || arguments.size() > 4) {
+            System.err.println("usage: Simulator <trace> <csv|oracleGeneral> <capacity>[,<capacity>...] [<policy>[,<policy>...]] [--bytes]");
+            System.exit(1);
+        }
+        Path path = Path.of(arguments.get(0));
+        TraceReader.Format format = switch (arguments.get(1).toLowerCase(Locale.ROOT)) {
+            case "csv" -> TraceReader.Format.CSV;
+            case "oraclegeneral" -> TraceReader.Format.ORACLE_GENERAL;
+            default -> throw new IllegalArgumentException("unknown trace format [" + arguments.get(1) + "]");
+        };
+        List<Policy> policies = new ArrayList<>();
+        if (arguments.size() == 4) {
+            for (String policy : arguments.get(3).split(",")) {
+                policies.add(Policy.valueOf(policy.trim().toUpperCase(Locale.ROOT)));
+            }
+        } else {
+            policies.addAll(List.of(Policy.values()));
+        }
+        for (String capacity : arguments.get(2).split(",")) {
+            for (Policy policy : policies) {
+                try (TraceReader trace = TraceReader.open(path, format)) {
+                    System.out.println(simulate(trace, policy, Long.parseLong(capacity.trim()), weighBytes));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package dev.bischoff.michael.elastic.cache.simulator;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Reads the requests of a trace one by one.
+ */
+public interface TraceReader extends AutoCloseable {
+
+    /**
+     * The supported trace formats.
+     */
+    enum Format {
+        /**
+         * Text lines of {@code key[,size[,op]]}, see {@link CsvTraceReader}.
+         */
+        CSV,
+        /**
+         * Binary records as used by libCacheSim, see {@link OracleGeneralTraceReader}.
+         */
+        ORACLE_GENERAL
+    }
+
+    /**
+     * Reads the next request.
+     *
+     * @param request filled in with the next request
+     * @return false once the trace is exhausted, the request is left untouched then
+     */
+    boolean next(Request request);
+
+    @Override
+    void close();
+
+    /**
+     * Maps the trace file into memory and reads it in the given format.
+     */
+    static TraceReader open(Path path, Format format) throws IOException {
+        MappedTrace trace = new MappedTrace(path);
+        return switch (format) {
+            case CSV -> new CsvTraceReader(trace);
+            case ORACLE_GENERAL -> new OracleGeneralTraceReader(trace);
+        };
+    }
+}